@@ -3,23 +3,30 @@ package org.fakekoji;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Reader;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.FileVisitResult;
 import java.nio.file.FileVisitor;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
 import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -122,8 +129,91 @@ public class Utils {
         writeToFile(path.toFile(), content);
     }
 
+    /**
+     * Writes the content to a temporary file next to the target, syncs it and renames it
+     * over the target, so readers and interrupted writes never see half written file.
+     * The rename is synced to disk before this returns.
+     */
     public static void writeToFile(File file, String content) throws IOException {
-        writeToFile(new FileOutputStream(file), content);
+        writeToFile(file, content, null);
+    }
+
+    /**
+     * Same as {@link #writeToFile(File, String)}, but sync of the directory, which makes
+     * the rename durable, is left to the batch, if there is one.
+     */
+    public static void writeToFile(File file, String content, WriteBatch batch) throws IOException {
+        final Path target = file.toPath().toAbsolutePath();
+        final Path dir = target.getParent();
+        final Path tmp = dir.resolve("." + file.getName() + "." + UUID.randomUUID() + ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                final ByteBuffer buffer = StandardCharsets.UTF_8.encode(content);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                // content must be on disk before the rename, or a crash may leave an empty target
+                channel.force(true);
+            }
+            if (Files.exists(target)) {
+                copyPermissions(target, tmp);
+            }
+            try {
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        if (batch == null) {
+            syncDirectory(dir);
+        } else {
+            batch.dirs.add(dir);
+        }
+    }
+
+    private static void copyPermissions(final Path from, final Path to) throws IOException {
+        try {
+            Files.setPosixFilePermissions(to, Files.getPosixFilePermissions(from));
+        } catch (UnsupportedOperationException e) {
+            // not a posix file system, nothing to keep
+        }
+    }
+
+    private static void syncDirectory(final Path dir) {
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // directories can not be opened on some platforms
+            LOGGER.log(Level.FINE, "Failed to sync " + dir, e);
+        }
+    }
+
+    /**
+     * Starts group commit of {@link #writeToFile(File, String, WriteBatch)}. Files written
+     * with the batch are synced one by one, but each directory they were renamed in is
+     * synced only once, when the batch is closed. The batch may be shared by more threads.
+     */
+    public static WriteBatch startWriteBatch() {
+        return new WriteBatch();
+    }
+
+    public static class WriteBatch implements AutoCloseable {
+
+        private final Set<Path> dirs = ConcurrentHashMap.newKeySet();
+
+        private WriteBatch() {
+        }
+
+        @Override
+        public void close() {
+            for (final Path dir : dirs) {
+                syncDirectory(dir);
+            }
+            dirs.clear();
+        }
     }
 
     public static void writeToFile(OutputStream os, String content) throws IOException {
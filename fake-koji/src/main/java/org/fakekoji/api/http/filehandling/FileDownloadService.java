@@ -27,22 +27,54 @@ import com.sun.net.httpserver.HttpServer;
 import java.io.File;
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This class implements http server used as koji download server ( packages are
  * downloaded from here by jenkins koji plugin ).
  *
  * Based on code, which was originally in JavaServer class.
+ *
+ * Requests are served by bounded pool of workers. When the workers and their
+ * queue are full, or one client has too many requests in progress, the request
+ * is answered by 503 with Retry-After.
  */
 public class FileDownloadService {
 
+    public static final String THREADS_PROPERTY = "fakekoji.download.threads";
+    public static final String QUEUE_PROPERTY = "fakekoji.download.queue";
+    public static final String PER_CLIENT_PROPERTY = "fakekoji.download.perClient";
+    private static final int BACKLOG = 128;
+
     private File dbFileRoot;
     private int port;
+    private final int threads;
+    private final int queueSize;
+    private final int maxRequestsPerClient;
     private HttpServer hs;
+    private ThreadPoolExecutor workers;
 
     public FileDownloadService(File dbFileRoot, int port) {
+        this(
+                dbFileRoot,
+                port,
+                Integer.getInteger(THREADS_PROPERTY, 32),
+                Integer.getInteger(QUEUE_PROPERTY, 256),
+                Integer.getInteger(PER_CLIENT_PROPERTY, 16)
+        );
+    }
+
+    public FileDownloadService(File dbFileRoot, int port, int threads, int queueSize, int maxRequestsPerClient) {
         this.dbFileRoot = dbFileRoot;
         this.port = port;
+        this.threads = threads;
+        this.queueSize = queueSize;
+        this.maxRequestsPerClient = maxRequestsPerClient;
     }
 
     public int getPort() {
@@ -51,15 +83,31 @@ public class FileDownloadService {
 
     public void start() throws IOException {
         if (hs == null) {
-            hs = HttpServer.create(new InetSocketAddress(port), 0);
-            hs.createContext("/", new FileReturningHandler(dbFileRoot));
+            hs = HttpServer.create(new InetSocketAddress(port), BACKLOG);
+            final BlockingQueue<Runnable> queue = queueSize > 0 ? new ArrayBlockingQueue<>(queueSize) : new SynchronousQueue<>();
+            final AtomicInteger counter = new AtomicInteger();
+            workers = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, queue, runnable -> {
+                final Thread thread = new Thread(runnable, "fake-koji-download-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            workers.allowCoreThreadTimeOut(true);
+            hs.createContext("/", new FileReturningHandler(dbFileRoot, workers, maxRequestsPerClient));
         }
         hs.start();
     }
 
     public void stop() {
+        stop(10);
+    }
+
+    /**
+     * @param delay seconds to wait for requests in progress
+     */
+    void stop(int delay) {
         if (hs != null) {
-            hs.stop(10);
+            hs.stop(delay);
+            workers.shutdownNow();
         }
     }
 }
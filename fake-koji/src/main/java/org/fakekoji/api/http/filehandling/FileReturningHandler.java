@@ -27,23 +27,38 @@ import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
 import hudson.plugins.scm.koji.Constants;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
 import java.nio.file.FileVisitResult;
 import java.nio.file.FileVisitor;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
@@ -58,10 +73,20 @@ import org.fakekoji.xmlrpc.server.JavaServerConstants;
 public class FileReturningHandler implements HttpHandler {
 
     public static final boolean wasteIoOnLastModifiedByDirContent = false;
+    private static final int RETRY_AFTER_SECONDS = 5;
     private final File root;
+    private final Executor workers;
+    private final int maxRequestsPerClient;
+    private final Map<InetAddress, Integer> clientRequests = new ConcurrentHashMap<>();
 
-    public FileReturningHandler(File dbFileRoot) {
+    /**
+     * @param workers executor running the requests, it should reject them when overloaded
+     * @param maxRequestsPerClient requests of one client served or queued at once
+     */
+    public FileReturningHandler(File dbFileRoot, Executor workers, int maxRequestsPerClient) {
         this.root = dbFileRoot;
+        this.workers = workers;
+        this.maxRequestsPerClient = maxRequestsPerClient;
     }
 
     private static final Logger LOGGER = Logger.getLogger(JavaServerConstants.FAKE_KOJI_LOGGER);
@@ -75,16 +100,40 @@ public class FileReturningHandler implements HttpHandler {
     @Override
     public void handle(HttpExchange t) throws IOException {
         //moving result toseparate thread is increasing performance by 1000%
-        RequestRunner rr = new RequestRunner(t);
-        new Thread(rr).start();
+        final InetAddress client = t.getRemoteAddress().getAddress();
+        if (clientRequests.merge(client, 1, Integer::sum) > maxRequestsPerClient) {
+            // one busy client must not take all the workers
+            release(client);
+            reject(t, client + " has too many requests in progress");
+            return;
+        }
+        try {
+            workers.execute(new RequestRunner(t, client));
+        } catch (RejectedExecutionException ex) {
+            release(client);
+            reject(t, "all workers busy");
+        }
+    }
+
+    private void release(InetAddress client) {
+        clientRequests.computeIfPresent(client, (key, count) -> count <= 1 ? null : count - 1);
+    }
+
+    private static void reject(HttpExchange t, String reason) throws IOException {
+        LOGGER.warning("Rejecting " + t.getRequestURI() + ": " + reason);
+        t.getResponseHeaders().set("Retry-After", String.valueOf(RETRY_AFTER_SECONDS));
+        t.sendResponseHeaders(503, -1);
+        t.close();
     }
 
     private class RequestRunner implements Runnable {
 
         private final HttpExchange t;
+        private final InetAddress client;
 
-        public RequestRunner(HttpExchange t) {
+        public RequestRunner(HttpExchange t, InetAddress client) {
             this.t = t;
+            this.client = client;
         }
 
         @Override
@@ -93,6 +142,9 @@ public class FileReturningHandler implements HttpHandler {
                 runImpl();
             } catch (IOException ex) {
                 throw new RuntimeException(ex);
+            } finally {
+                t.close();
+                release(client);
             }
         }
 
@@ -132,24 +184,43 @@ public class FileReturningHandler implements HttpHandler {
     private static void sentFullLIst(File ff, final String requestedFile, HttpExchange t) throws IOException {
         File f = ff.getParentFile();
         LOGGER.info(f.getAbsolutePath() + " listing all files!");
+        // one walk serves both the validator and the listing
+        final ListingValidator validator = new ListingValidator();
+        final List<FileInfo> fileList = getRecursiveFileList(requestedFile, f, validator);
+        if (notModified(t, validator.getETag(), validator.getLastModified())) {
+            return;
+        }
         String init = "<html>\n  <body>\n";
-        StringBuilder sb1 = generateHtmlFromFileList(requestedFile, f, new ComparatorByVersion());
-        StringBuilder sb2 = generateHtmlFromFileList(requestedFile, f, new ComparatorByLastModified());
+        StringBuilder sb1 = generateHtmlFromFileList(requestedFile, fileList, new ComparatorByVersion());
+        StringBuilder sb2 = generateHtmlFromFileList(requestedFile, fileList, new ComparatorByLastModified());
         String close = "  </body>\n</html>\n";
         String result = init + sb1.toString() + "<hr/>" + sb2 + close;
-        long size = result.length(); //yahnot perfect, ets assuemno one will use this on chinese chars
-        t.sendResponseHeaders(200, size);
+        sentHtml(result, t);
+    }
+
+    private static void sentHtml(final String html, final HttpExchange t) throws IOException {
+        final byte[] body = html.getBytes();
+        t.getResponseHeaders().set("Content-Type", "text/html");
+        if ("HEAD".equals(t.getRequestMethod())) {
+            // server does not allow any body for HEAD
+            t.getResponseHeaders().set("Content-Length", String.valueOf(body.length));
+            t.sendResponseHeaders(200, -1);
+            t.close();
+            return;
+        }
+        t.sendResponseHeaders(200, body.length);
         try (OutputStream os = t.getResponseBody()) {
-            os.write(result.getBytes());
+            os.write(body);
         }
-
     }
 
-    private static List<FileInfo> getRecursiveFileList(final String requestedFile, final File f) throws IOException {
+    private static List<FileInfo> getRecursiveFileList(final String requestedFile, final File f, final ListingValidator validator) throws IOException {
         List<FileInfo> list = new ArrayList();
         Files.walkFileTree(f.toPath(), new FileVisitor<Path>() {
             @Override
             public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                // removal of a file changes only the directory
+                validator.add(dir.toString(), attrs.lastModifiedTime().toMillis(), 0);
                 return FileVisitResult.CONTINUE;
             }
 
@@ -159,6 +230,7 @@ public class FileReturningHandler implements HttpHandler {
                 String rf = new File(requestedFile).getParent();
                 String path = "/" + rf + "/" + fileChunk;
                 path = path.replaceAll("/+", "/");
+                validator.add(fileChunk, attrs.lastModifiedTime().toMillis(), attrs.size());
                 list.add(new FileInfo(fileChunk, path, file));
                 return FileVisitResult.CONTINUE;
             }
@@ -176,7 +248,7 @@ public class FileReturningHandler implements HttpHandler {
         return list;
     }
 
-    private static StringBuilder generateHtmlFromFileList(final String requestedFile, final File f, Comparator c) throws IOException {
+    private static StringBuilder generateHtmlFromFileList(final String requestedFile, final List<FileInfo> files, Comparator c) throws IOException {
         final StringBuilder resultHtml = new StringBuilder();
         final InfoProvider provider = (InfoProvider) c;
         resultHtml.append("  <h2>").append(requestedFile);
@@ -185,7 +257,7 @@ public class FileReturningHandler implements HttpHandler {
         resultHtml.append("    <a href=\"").append(new File(requestedFile).getParent()).append("\">");
         resultHtml.append("..");
         resultHtml.append("    </a><br/>\n");
-        List<FileInfo> fileList = getRecursiveFileList(requestedFile, f);
+        List<FileInfo> fileList = new ArrayList<>(files);
         Collections.sort(fileList, c);
         for (FileInfo file : fileList) {
             resultHtml.append("    <a href=\"").append(file.getPath()).append("\">");
@@ -200,21 +272,56 @@ public class FileReturningHandler implements HttpHandler {
     private static void sentFile(File f, HttpExchange t) throws IOException {
         long size = f.length();
         LOGGER.info(f.getAbsolutePath() + " is " + size + " bytes long");
-        t.sendResponseHeaders(200, size);
+        final String etag = getETag(f);
+        final String lastModified = formatHttpDate(f.lastModified());
+        t.getResponseHeaders().set("Accept-Ranges", "bytes");
+        t.getResponseHeaders().set("Content-Type", getContentType(f.getName()));
+        if (notModified(t, etag, f.lastModified())) {
+            return;
+        }
+        if ("HEAD".equals(t.getRequestMethod())) {
+            // reachability probe of the plugin, headers only
+            t.getResponseHeaders().set("Content-Length", String.valueOf(size));
+            t.sendResponseHeaders(200, -1);
+            t.close();
+            return;
+        }
+        final long[] range = getRequestedRange(t, size, etag, lastModified);
+        if (range == UNSATISFIABLE_RANGE) {
+            t.getResponseHeaders().set("Content-Range", "bytes */" + size);
+            t.sendResponseHeaders(416, -1);
+            t.close();
+            return;
+        }
+        long start = 0;
+        long length = size;
+        if (range == null) {
+            t.sendResponseHeaders(200, size);
+        } else {
+            start = range[0];
+            length = range[1] - range[0] + 1;
+            LOGGER.info(f.getAbsolutePath() + " resumed from " + start);
+            t.getResponseHeaders().set("Content-Range", "bytes " + range[0] + "-" + range[1] + "/" + size);
+            t.sendResponseHeaders(206, length);
+        }
         try (OutputStream os = t.getResponseBody();
-             InputStream is = new FileInputStream(f)) {
-            copy(is, os);
+             FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+            transfer(channel, start, length, os);
         }
     }
 
-    private static final int BUF_SIZE = 0x1000; // 4K
-
-    public static long copy(InputStream from, OutputStream to)
-            throws IOException {
-        byte[] buf = new byte[BUF_SIZE];
+    /**
+     * HttpExchange gives us only a stream, so sendfile is not possible. Reading
+     * the channel in big chunks keeps the number of syscalls and copies low.
+     */
+    static long transfer(FileChannel from, long position, long length, OutputStream to) throws IOException {
+        final byte[] buf = new byte[TRANSFER_BUF_SIZE];
+        final ByteBuffer buffer = ByteBuffer.wrap(buf);
         long total = 0;
-        while (true) {
-            int r = from.read(buf);
+        while (total < length) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buf.length, length - total));
+            final int r = from.read(buffer, position + total);
             if (r == -1) {
                 break;
             }
@@ -224,16 +331,162 @@ public class FileReturningHandler implements HttpHandler {
         return total;
     }
 
+    static String getContentType(String fileName) {
+        final int dot = fileName.lastIndexOf('.');
+        final String suffix = dot < 0 ? "" : fileName.substring(dot + 1).toLowerCase();
+        switch (suffix) {
+            case "rpm":
+                return "application/x-rpm";
+            case "tarxz":
+            case "xz":
+                return "application/x-xz";
+            case "gz":
+                return "application/gzip";
+            case "zip":
+                return "application/zip";
+            case "msi":
+                return "application/x-msi";
+            case "html":
+                return "text/html; charset=UTF-8";
+            case "log":
+            case "txt":
+            case "xml":
+            case "json":
+            case "props":
+                return "text/plain; charset=UTF-8";
+            default:
+                return "application/octet-stream";
+        }
+    }
+
+    private static final long[] UNSATISFIABLE_RANGE = new long[0];
+
+    /**
+     * Only single range is supported, for resuming of broken downloads. If-Range
+     * is compared with ETag and Last-Modified of the file.
+     *
+     * @return first and last byte to send, null for whole file, or {@link #UNSATISFIABLE_RANGE}
+     */
+    static long[] getRequestedRange(HttpExchange t, long size, String etag, String lastModified) {
+        final String range = t.getRequestHeaders().getFirst("Range");
+        if (range == null || !range.startsWith("bytes=") || range.contains(",")) {
+            return null;
+        }
+        final String ifRange = t.getRequestHeaders().getFirst("If-Range");
+        if (ifRange != null && !ifRange.equals(etag) && !ifRange.equals(lastModified)) {
+            // file changed since the first part was downloaded
+            return null;
+        }
+        final String spec = range.substring("bytes=".length()).trim();
+        final int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        try {
+            final long first;
+            final long last;
+            if (dash == 0) {
+                // last n bytes
+                first = Math.max(0, size - Long.parseLong(spec.substring(1)));
+                last = size - 1;
+            } else {
+                first = Long.parseLong(spec.substring(0, dash));
+                last = dash == spec.length() - 1 ? size - 1 : Math.min(size - 1, Long.parseLong(spec.substring(dash + 1)));
+            }
+            if (first >= size || first > last) {
+                return UNSATISFIABLE_RANGE;
+            }
+            return new long[]{first, last};
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Sets validators of the response and answers 304 if the client already
+     * has this version. If-None-Match takes precedence over If-Modified-Since.
+     *
+     * @return true if 304 was sent
+     */
+    static boolean notModified(HttpExchange t, String etag, long lastModified) throws IOException {
+        t.getResponseHeaders().set("ETag", etag);
+        t.getResponseHeaders().set("Last-Modified", formatHttpDate(lastModified));
+        final String ifNoneMatch = t.getRequestHeaders().getFirst("If-None-Match");
+        final String ifModifiedSince = t.getRequestHeaders().getFirst("If-Modified-Since");
+        final boolean notModified;
+        if (ifNoneMatch != null) {
+            notModified = matchesAny(ifNoneMatch, etag);
+        } else if (ifModifiedSince != null) {
+            // http dates have only seconds
+            notModified = parseHttpDate(ifModifiedSince) >= lastModified / 1000 * 1000;
+        } else {
+            notModified = false;
+        }
+        if (notModified) {
+            t.sendResponseHeaders(304, -1);
+            t.close();
+        }
+        return notModified;
+    }
+
+    /**
+     * Weak comparison, as required for If-None-Match.
+     */
+    static boolean matchesAny(String ifNoneMatch, String etag) {
+        final String opaqueETag = etag.startsWith("W/") ? etag.substring(2) : etag;
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.equals("*")) {
+                return true;
+            }
+            if (candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+            if (candidate.equals(opaqueETag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long parseHttpDate(String date) {
+        try {
+            return ZonedDateTime.parse(date, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+        } catch (DateTimeParseException ex) {
+            return Long.MIN_VALUE;
+        }
+    }
+
+    static String getETag(File f) {
+        return "\"" + Long.toHexString(f.length()) + "-" + Long.toHexString(f.lastModified()) + "\"";
+    }
+
+    static String formatHttpDate(long millis) {
+        return DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneOffset.UTC));
+    }
+
+    private static final int TRANSFER_BUF_SIZE = 0x40000; // 256K
+
     private void sentDirListing(File f, String requestedFile, HttpExchange t) throws IOException {
         LOGGER.info(f.getAbsolutePath() + " listing directory!");
         String[] files = f.list();
+        final ListingValidator validator = new ListingValidator();
+        validator.add(".", f.lastModified(), 0);
+        for (String fileChunk : files) {
+            final File file = new File(f, fileChunk);
+            validator.add(fileChunk, file.lastModified(), file.length());
+        }
+        if (notModified(t, validator.getETag(), validator.getLastModified())) {
+            return;
+        }
         ArrayList<FileInfo> fileInfoList = new ArrayList();
         fileInfoList.add(0, new FileInfo("ALL", "ALL", new File(root + "/" + requestedFile + "/" + "ALL").toPath()));
         for (int i = 0; i < files.length; i++) {
             String fileChunk = files[i];
             long lastModifiedDirContent = 0;
             File file = new File(root + "/" + requestedFile + "/" + fileChunk);
-            if (file.exists()) {
+            // walking each subdirectory is needed only for the dirContent view
+            if (wasteIoOnLastModifiedByDirContent && file.exists()) {
                 if (Files.isDirectory(file.toPath())) {
                     lastModifiedDirContent = getNewestDateIn(file).getTime();
                 }
@@ -250,11 +503,7 @@ public class FileReturningHandler implements HttpHandler {
         }
         String close = "  </body>\n</html>\n";
         String result = init + sb1.toString() + "<hr/>" + sb2.toString() + "<hr/>" + sb3.toString() + close;
-        long size = result.length(); //yahnot perfect, ets assuemno one will use this on chinese chars
-        t.sendResponseHeaders(200, size);
-        try (OutputStream os = t.getResponseBody()) {
-            os.write(result.getBytes());
-        }
+        sentHtml(result, t);
     }
 
     private void sortFileList(ArrayList<FileInfo> list, Comparator c) {
@@ -410,6 +659,37 @@ public class FileReturningHandler implements HttpHandler {
         return logs;
     }
 
+    /**
+     * Weak validator of a generated listing, made of names, modification times
+     * and sizes of listed files. Computing it costs only stats, no html.
+     */
+    static class ListingValidator {
+
+        private final MessageDigest digest;
+        private long lastModified;
+
+        ListingValidator() {
+            try {
+                digest = MessageDigest.getInstance("MD5");
+            } catch (NoSuchAlgorithmException ex) {
+                throw new RuntimeException(ex);
+            }
+        }
+
+        void add(String name, long lastModified, long size) {
+            digest.update((name + '\0' + lastModified + '\0' + size + '\n').getBytes(StandardCharsets.UTF_8));
+            this.lastModified = Math.max(this.lastModified, lastModified);
+        }
+
+        String getETag() {
+            return "W/\"" + new BigInteger(1, digest.digest()).toString(16) + "\"";
+        }
+
+        long getLastModified() {
+            return lastModified;
+        }
+    }
+
     static class FileInfo {
 
         private final String fileChunk;
@@ -160,7 +160,7 @@ public class BumperAPI implements EndpointGroup {
             }
             final Collection<Project> projects;
             try {
-                final ConfigCache configCache = new ConfigCache(configManager);
+                final ConfigCache configCache = configManager.getConfigCache();
                 projects = configCache.getProjects();
             } catch (StorageException e) {
                 return Result.err(new OToolError(e.getMessage(), 500));
@@ -203,7 +203,7 @@ public class BumperAPI implements EndpointGroup {
             }
             final Collection<Project> projects;
             try {
-                final ConfigCache configCache = new ConfigCache(configManager);
+                final ConfigCache configCache = configManager.getConfigCache();
                 projects = configCache.getProjects();
             } catch (StorageException e) {
                 return Result.err(new OToolError(e.getMessage(), 500));
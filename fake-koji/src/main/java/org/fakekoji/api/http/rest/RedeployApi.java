@@ -252,7 +252,7 @@ public class RedeployApi implements EndpointGroup {
 
         });
         get(REPROVIDER, context -> {
-            try {
+            try (Utils.WriteBatch writeBatch = Utils.startWriteBatch()) {
                 String OTOOL_PLATFORM_PROVIDER = JenkinsJobTemplateBuilder.OTOOL_BASH_VAR_PREFIX + JenkinsJobTemplateBuilder.PLATFORM_PROVIDER_VAR;
                 List<String> jobs = new RedeployApiWorkerBase.RedeployApiStringListing(context).process(jdkProjectManager, jdkTestProjectManager, parser);
                 String doAndHow = context.queryParam(REDEPLOY_DO);
@@ -325,7 +325,7 @@ public class RedeployApi implements EndpointGroup {
                         lines.set(i, mainline);
                     }
                     if ("true".equals(doAndHow)) {
-                        Utils.writeToFile(config, String.join("\n", lines));
+                        Utils.writeToFile(config, String.join("\n", lines), writeBatch);
                         sb.append(" - written\n");
                         try {
                             JenkinsCliWrapper.getCli().reloadJob(job).throwIfNecessary();
@@ -350,7 +350,7 @@ public class RedeployApi implements EndpointGroup {
             }
         });
         get(RESLAVES, context -> {
-            try {
+            try (Utils.WriteBatch writeBatch = Utils.startWriteBatch()) {
                 List<String> jobs = new RedeployApiWorkerBase.RedeployApiStringListing(context).process(jdkProjectManager, jdkTestProjectManager, parser);
                 String doAndHow = context.queryParam(REDEPLOY_DO);
                 String nwSlaves = context.queryParam(RESLAVES);
@@ -376,7 +376,7 @@ public class RedeployApi implements EndpointGroup {
                         }
                     }
                     if ("true".equals(doAndHow)) {
-                        Utils.writeToFile(config, String.join("\n", lines));
+                        Utils.writeToFile(config, String.join("\n", lines), writeBatch);
                         sb.append(" - written\n");
                         try {
                             JenkinsCliWrapper.getCli().reloadJob(job).throwIfNecessary();
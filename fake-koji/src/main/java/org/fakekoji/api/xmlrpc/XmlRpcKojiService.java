@@ -29,6 +29,7 @@ import org.apache.xmlrpc.server.XmlRpcServerConfigImpl;
 import org.apache.xmlrpc.webserver.WebServer;
 import org.fakekoji.core.AccessibleSettings;
 import org.fakekoji.core.FakeKojiDB;
+import org.fakekoji.core.FakeKojiDBWatcher;
 import org.fakekoji.xmlrpc.server.JavaServerConstants;
 import org.fakekoji.xmlrpc.server.xmlrpcrequestparams.GetBuildDetail;
 import org.fakekoji.xmlrpc.server.xmlrpcrequestparams.GetBuildList;
@@ -37,6 +38,8 @@ import org.fakekoji.xmlrpc.server.xmlrpcrequestparams.ListArchives;
 import org.fakekoji.xmlrpc.server.xmlrpcrequestparams.ListBuilds;
 import org.fakekoji.xmlrpc.server.xmlrpcrequestparams.ListRPMs;
 import org.fakekoji.xmlrpc.server.xmlrpcrequestparams.ListTags;
+import org.fakekoji.xmlrpc.server.xmlrpcrequestparams.MultiCall;
+import org.fakekoji.xmlrpc.server.xmlrpcrequestparams.XmlRpcRequestParams;
 import org.fakekoji.xmlrpc.server.xmlrpcresponse.ArchiveList;
 import org.fakekoji.xmlrpc.server.xmlrpcresponse.BuildList;
 import org.fakekoji.xmlrpc.server.xmlrpcresponse.FakeBuildDetail;
@@ -47,6 +50,8 @@ import org.fakekoji.xmlrpc.server.xmlrpcresponse.TagSet;
 import org.fakekoji.xmlrpc.server.xmlrpcresponse.XmlRpcResponse;
 
 import java.io.IOException;
+import java.util.List;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -60,6 +65,8 @@ public class XmlRpcKojiService {
 
     private WebServer webServer;
     private final AccessibleSettings settings;
+    private FakeKojiDB kojiDb;
+    private FakeKojiDBWatcher kojiDbWatcher;
 
     public XmlRpcKojiService(AccessibleSettings settings) {
         this.settings = settings;
@@ -98,56 +105,93 @@ public class XmlRpcKojiService {
         XmlRpcServerConfigImpl config = new XmlRpcServerConfigImpl();
         config.setEnabledForExtensions(true);
         webServer.getXmlRpcServer().setConfig(config);
+        kojiDb = new FakeKojiDB(settings);
+        kojiDbWatcher = new FakeKojiDBWatcher(kojiDb, settings.getDbFileRoot().toPath());
+        kojiDbWatcher.start();
 
         XmlRpcHandlerMapping xxx = string -> xmlRpcRequest -> {
             LOGGER.info("Requested: " + xmlRpcRequest.getMethodName());
-            //need reinitializzing, as new  build could be added
-            FakeKojiDB kojiDb = new FakeKojiDB(settings);
-            if (xmlRpcRequest.getMethodName().equals("sample.sum")) {
-                //testing method
-                return sum(xmlRpcRequest.getParameter(0), xmlRpcRequest.getParameter(1));
+            final Object[] parameters = new Object[xmlRpcRequest.getParameterCount()];
+            for (int i = 0; i < parameters.length; i++) {
+                parameters[i] = xmlRpcRequest.getParameter(i);
             }
-            final Object parameter = xmlRpcRequest.getParameter(0);
-
-            final XmlRpcResponse response;
-            switch (xmlRpcRequest.getMethodName()) {
-                case Constants.getPackageID:
-                    response = new PackageId(kojiDb.getPkgId(GetPackageId.create(parameter).getPackageName()));
-                    break;
-                case Constants.listBuilds:
-                    response = new BuildList(kojiDb.getProjectBuilds(ListBuilds.create(parameter).getPackageId()));
-                    break;
-                case Constants.listTags:
-                    response = new TagSet(kojiDb.getTags(ListTags.create(parameter).getBuildId()));
-                    break;
-                case Constants.listRPMs:
-                    final ListRPMs listRPMsParams = ListRPMs.create(parameter);
-                    response = new RPMList(kojiDb.getRpms(listRPMsParams.getBuildId(), listRPMsParams.getArchs()));
-                    break;
-                case Constants.listArchives:
-                    final ListArchives listArchivesParams = ListArchives.create(parameter);
-                    response = new ArchiveList(kojiDb.getArchives(listArchivesParams.getBuildId(), listArchivesParams.getArchs()));
-                    break;
-                case Constants.getBuildList:
-                    final GetBuildList getBuildListParams = GetBuildList.create(parameter);
-                    response = new FakeBuildList(kojiDb.getBuildList(getBuildListParams));
-                    break;
-                case Constants.getBuildDetail:
-                    final GetBuildDetail getBuildDetailParams = GetBuildDetail.create(parameter);
-                    response = new FakeBuildDetail(kojiDb.getBuildDetail(getBuildDetailParams));
-                    break;
-                default:
-                    return null;
-            }
-            return response.toObject();
+            return handle(xmlRpcRequest.getMethodName(), parameters);
         };
         webServer.getXmlRpcServer().setHandlerMapping(xxx);
         //server.addHandler("sample", new JavaServer());
         webServer.start();
     }
 
+    private Object handle(String methodName, Object[] parameters) {
+        if (methodName.equals("sample.sum")) {
+            //testing method
+            return sum(parameters[0], parameters[1]);
+        }
+        if (methodName.equals(Constants.multicall)) {
+            return multicall(MultiCall.create(parameters[0]));
+        }
+        final Object parameter = parameters[0];
+
+        final XmlRpcResponse response;
+        switch (methodName) {
+            case Constants.getPackageID:
+                response = new PackageId(kojiDb.getPkgId(GetPackageId.create(parameter).getPackageName()));
+                break;
+            case Constants.listBuilds:
+                response = new BuildList(kojiDb.getProjectBuilds(ListBuilds.create(parameter).getPackageId()));
+                break;
+            case Constants.listTags:
+                response = new TagSet(kojiDb.getTags(ListTags.create(parameter).getBuildId()));
+                break;
+            case Constants.listRPMs:
+                final ListRPMs listRPMsParams = ListRPMs.create(parameter);
+                response = new RPMList(kojiDb.getRpms(listRPMsParams.getBuildId(), listRPMsParams.getArchs()));
+                break;
+            case Constants.listArchives:
+                final ListArchives listArchivesParams = ListArchives.create(parameter);
+                response = new ArchiveList(kojiDb.getArchives(listArchivesParams.getBuildId(), listArchivesParams.getArchs()));
+                break;
+            case Constants.getBuildList:
+                final GetBuildList getBuildListParams = GetBuildList.create(parameter);
+                response = new FakeBuildList(kojiDb.getBuildList(getBuildListParams));
+                break;
+            case Constants.getBuildDetail:
+                final GetBuildDetail getBuildDetailParams = GetBuildDetail.create(parameter);
+                response = new FakeBuildDetail(kojiDb.getBuildDetail(getBuildDetailParams));
+                break;
+            default:
+                return null;
+        }
+        return response.toObject();
+    }
+
+    /**
+     * Koji's system.multicall, each call is answered separately, so one failing
+     * call does not spoil the others.
+     */
+    private Object[] multicall(MultiCall multiCall) {
+        final List<XmlRpcRequestParams> calls = multiCall.getCalls();
+        final Object[] results = new Object[calls.size()];
+        for (int i = 0; i < results.length; i++) {
+            final XmlRpcRequestParams call = calls.get(i);
+            try {
+                if (call.getMethodName().equals(Constants.multicall)) {
+                    throw new IllegalArgumentException("Nested " + Constants.multicall + " is not allowed");
+                }
+                results[i] = MultiCall.success(handle(call.getMethodName(), call.toXmlRpcParams()));
+            } catch (Exception ex) {
+                LOGGER.log(Level.WARNING, "Call " + call.getMethodName() + " in " + Constants.multicall + " failed", ex);
+                results[i] = MultiCall.fault(1, ex.toString());
+            }
+        }
+        return results;
+    }
+
     public void stop() {
         webServer.shutdown();
+        if (kojiDbWatcher != null) {
+            kojiDbWatcher.close();
+        }
     }
 
 }
@@ -0,0 +1,57 @@
+package org.fakekoji.core;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers verdicts of {@link IsFailedBuild} per build directory, as walking
+ * whole build on each listBuilds is expensive. Verdict is dropped when
+ * modification time of the build directory changes, or when the watcher
+ * reports a change somewhere inside of the build.
+ */
+public class FailedBuildsCache {
+
+    private final Map<Path, Verdict> verdicts = new ConcurrentHashMap<>();
+
+    public boolean isFailed(File buildDir) {
+        final Path key = buildDir.toPath();
+        final long lastModified = buildDir.lastModified();
+        final Verdict verdict = verdicts.get(key);
+        if (verdict != null && verdict.lastModified == lastModified) {
+            return verdict.failed;
+        }
+        final boolean failed = new IsFailedBuild(buildDir).reCheck().getLastResult();
+        verdicts.put(key, new Verdict(lastModified, failed));
+        return failed;
+    }
+
+    /**
+     * Drops verdict of build containing given path.
+     *
+     * @param path changed file or directory
+     */
+    public void invalidate(Path path) {
+        for (Path parent = path; parent != null; parent = parent.getParent()) {
+            if (verdicts.remove(parent) != null) {
+                return;
+            }
+        }
+    }
+
+    public void invalidateAll() {
+        verdicts.clear();
+    }
+
+    private static class Verdict {
+
+        private final long lastModified;
+        private final boolean failed;
+
+        Verdict(long lastModified, boolean failed) {
+            this.lastModified = lastModified;
+            this.failed = failed;
+        }
+    }
+}
@@ -64,6 +64,7 @@ public class FakeBuild {
     private final String nvr;
     private final File dir;
     private final ProjectMapping projectMapping;
+    private final FailedBuildsCache failedBuilds;
 
     private static final String logs = "logs";
     private static final String data = "data";
@@ -71,6 +72,11 @@ public class FakeBuild {
     public static final String archesConfigFileName = "arches-expected";
 
     public FakeBuild(String name, String version, String release, File releaseDir, ProjectMapping projectMapping) {
+        this(name, version, release, releaseDir, projectMapping, new FailedBuildsCache());
+    }
+
+    public FakeBuild(String name, String version, String release, File releaseDir, ProjectMapping projectMapping, FailedBuildsCache failedBuilds) {
+        this.failedBuilds = failedBuilds;
         this.dir = releaseDir;
         this.name = name;
         this.version = version;
@@ -311,6 +317,8 @@ public class FakeBuild {
         }
         final List<File> files = getNonLogs();
         final List<RPM> rpms = new ArrayList<>(files.size());
+        //all files are in arch dirs of this build, so the verdict is same for all of them
+        final boolean isFailed = failedBuilds.isFailed(dir);
         for (File file : files) {
             final String fileName = file.getName();
             String packageName = replaceLast(fileName, "-.*", "");
@@ -318,7 +326,6 @@ public class FakeBuild {
             String packageFile = replaceLast(fileName, "\\..*", ""); //.suffix
             packageFile = replaceLast(packageFile, "\\..*", ""); //.arch
             final String arch = file.getParentFile().getName();
-            final boolean isFailed = new IsFailedBuild(file.getParentFile().getParentFile()).reCheck().getLastResult();
             if (isFailed) {
                 LOGGER.warning(file + " seems to be from failed build!");
             }
@@ -35,16 +35,28 @@ import org.fakekoji.xmlrpc.server.xmlrpcrequestparams.GetBuildDetail;
 import org.fakekoji.xmlrpc.server.xmlrpcrequestparams.GetBuildList;
 
 import java.io.File;
+import java.io.IOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Hart beat of fake koji. This class works over directory, with similar
@@ -55,61 +67,121 @@ public class FakeKojiDB {
 
     private static final Logger LOGGER = Logger.getLogger(JavaServerConstants.FAKE_KOJI_LOGGER);
 
-    private final String[] projects;
-    private final List<FakeBuild> builds;
     private final AccessibleSettings settings;
+    // project -> version -> release -> build, guarded by this
+    private final Map<String, ProjectEntry> index = new TreeMap<>();
+    private FileTime rootLastModified;
+    private final FailedBuildsCache failedBuilds = new FailedBuildsCache();
+
+    private volatile Snapshot snapshot = new Snapshot(Collections.emptyList());
 
     public FakeKojiDB(AccessibleSettings settings) {
-        LOGGER.info("(re)initizing fake koji DB");
+        LOGGER.info("initializing fake koji DB");
         this.settings = settings;
-        File[] projectDirs = settings.getDbFileRoot().listFiles(new DirFilter());
-        projects = new String[projectDirs.length];
-        builds = new ArrayList<>();
-        //read all projects
-        for (int i = 0; i < projectDirs.length; i++) {
-            File projectDir = projectDirs[i];
-            projects[i] = projectDir.getName();
-            //and all builds in those project
-            File[] versions = projectDir.listFiles(new DirFilter());
-            for (File version : versions) {
-                File[] releases = version.listFiles(new DirFilter());
-                for (File release : releases) {
-                    FakeBuild b = new FakeBuild(projectDir.getName(), version.getName(), release.getName(), release, settings.getProjectMapping());
-                    builds.add(b);
+        refresh();
+    }
+
+    /**
+     * Brings the index in sync with the builds directory. Only directories whose
+     * modification time changed since the last refresh are listed again, so an
+     * unchanged tree costs one stat per project and version directory.
+     */
+    public void refresh() {
+        refresh(Collections.emptyList());
+    }
+
+    /**
+     * Same as {@link #refresh()}, but also re-reads content of builds under
+     * given paths. Content of build (its files) decides whether it is listed
+     * by old api and its completion time. Passing the root re-reads all.
+     *
+     * @param changed paths somewhere in builds directory
+     */
+    public synchronized void refresh(Collection<Path> changed) {
+        final File root = settings.getDbFileRoot();
+        boolean structureChanged = false;
+        final FileTime rootModified = lastModified(root);
+        if (!rootModified.equals(rootLastModified)) {
+            rootLastModified = rootModified;
+            final Set<String> found = new HashSet<>();
+            for (File projectDir : listDirs(root)) {
+                found.add(projectDir.getName());
+                if (!index.containsKey(projectDir.getName())) {
+                    index.put(projectDir.getName(), new ProjectEntry(projectDir));
+                    structureChanged = true;
                 }
             }
-
+            structureChanged |= index.keySet().retainAll(found);
+        }
+        final Set<ProjectEntry> toSort = new HashSet<>();
+        for (ProjectEntry project : index.values()) {
+            if (project.refresh(settings.getProjectMapping(), failedBuilds)) {
+                toSort.add(project);
+            }
+        }
+        final Path rootPath = root.toPath();
+        for (Path path : changed) {
+            if (path.equals(rootPath)) {
+                failedBuilds.invalidateAll();
+                toSort.addAll(index.values());
+            } else if (path.startsWith(rootPath)) {
+                failedBuilds.invalidate(path);
+                final ProjectEntry project = index.get(rootPath.relativize(path).getName(0).toString());
+                if (project != null) {
+                    toSort.add(project);
+                }
+            }
+        }
+        for (ProjectEntry project : toSort) {
+            project.sort(failedBuilds);
+        }
+        if (structureChanged || !toSort.isEmpty()) {
+            snapshot = new Snapshot(index.values());
+            LOGGER.info("fake koji DB indexed " + snapshot.builds.size() + " builds of " + snapshot.projectIds.size() + " projects");
         }
+    }
 
+    FakeBuild getBuild(String name, String version, String release) {
+        final ProjectEntry project;
+        synchronized (this) {
+            project = index.get(name);
+        }
+        if (project == null) {
+            return null;
+        }
+        final VersionEntry versionEntry = project.versions.get(version);
+        if (versionEntry == null) {
+            return null;
+        }
+        return versionEntry.releases.get(release);
     }
 
     public Integer getPkgId(String requestedProject) {
-        StringBuilder triedProjects = new StringBuilder();
-        for (String project : projects) {
-            triedProjects.append(" ").append(project);
-            if (project.equals(requestedProject)) {
-                //is there better str->int function?
-                //indeed, the file. But number of projects is small.
-                return project.hashCode();
-            }
+        final Snapshot current = snapshot;
+        final Integer id = current.projectIds.get(requestedProject);
+        if (id == null) {
+            LOGGER.info("Unknown project " + requestedProject + ". Tried: " + current.projectIds.keySet() + ".");
         }
-        LOGGER.info("Unknown project " + requestedProject + ". Tried: " + triedProjects + ".");
-        return null;
+        return id;
     }
 
+    /**
+     * @param projectId id of project as returned by {@link #getPkgId(String)}
+     * @param fakeTags tags to set to all builds, or null to deduct them
+     * @return builds of the project usable by old api, newest first
+     */
     public List<Build> getProjectBuilds(Integer projectId, Set<String> fakeTags) {
-        List<Build> projectBuilds = new ArrayList<>();
-        for (FakeBuild build : builds) {
-            if (build.getProjectID() == projectId && isOkForOldApi(build)) {
-                if (new IsFailedBuild(build.getDir()).reCheck().getLastResult()) {
-                    LOGGER.info("Removing build " + build.toString() + " from result. Contains FAILED records");
-                    continue;
-                }
-                if (fakeTags == null) {
-                    projectBuilds.add(build.toBuild());
-                } else {
-                    projectBuilds.add(build.toBuild(fakeTags));
-                }
+        final List<FakeBuild> sorted = snapshot.projectBuilds.getOrDefault(projectId, Collections.emptyList());
+        List<Build> projectBuilds = new ArrayList<>(sorted.size());
+        for (FakeBuild build : sorted) {
+            if (failedBuilds.isFailed(build.getDir())) {
+                LOGGER.info("Removing build " + build.toString() + " from result. Contains FAILED records");
+                continue;
+            }
+            if (fakeTags == null) {
+                projectBuilds.add(build.toBuild());
+            } else {
+                projectBuilds.add(build.toBuild(fakeTags));
             }
         }
         return projectBuilds;
@@ -120,12 +192,7 @@ public class FakeKojiDB {
     }
 
     FakeBuild getBuildById(Integer buildId) {
-        for (FakeBuild build : builds) {
-            if (build.getBuildID() == buildId) {
-                return build;
-            }
-        }
-        return null;
+        return snapshot.buildsById.get(buildId);
     }
 
     /**
@@ -138,12 +205,11 @@ public class FakeKojiDB {
      */
 
     public Set<String> getTags(Integer buildId) {
-        for (FakeBuild build : builds) {
-            if (build.getBuildID() == buildId) {
-                return build.getTags();
-            }
+        final FakeBuild build = getBuildById(buildId);
+        if (build == null) {
+            return Collections.emptySet();
         }
-        return Collections.emptySet();
+        return build.getTags();
     }
 /*
     void checkAll() {
@@ -267,7 +333,7 @@ public class FakeKojiDB {
             return Collections.emptyList();
         }
 
-        return builds.stream()
+        return snapshot.builds.stream()
                 .map(FakeBuild::getNVR)
                 .map(nvr -> buildHelper.getOToolParser().parseBuild(nvr))
                 .filter(Result::isOk)
@@ -288,7 +354,7 @@ public class FakeKojiDB {
                 name.endsWith(".zip");
     }
 
-    private boolean isOkForOldApi(FakeBuild b) {
+    private static boolean isOkForOldApi(FakeBuild b) {
         List<File> files = b.getNonLogs();
         for (File file : files) {
             if (isOkForOldApi(file.getName())) {
@@ -299,10 +365,132 @@ public class FakeKojiDB {
     }
 
     public Build getBuildDetail(GetBuildDetail i) {
-        File dir = new File(settings.getDbFileRoot().getAbsolutePath() + "/" +
-                i.n + "/" + i.v + "/" + i.r);
-        FakeBuild fb = new FakeBuild(i.n, i.v, i.r, dir, settings.getProjectMapping());
+        FakeBuild fb = getBuild(i.n, i.v, i.r);
+        if (fb == null) {
+            File dir = new File(settings.getDbFileRoot().getAbsolutePath() + "/" +
+                    i.n + "/" + i.v + "/" + i.r);
+            fb = new FakeBuild(i.n, i.v, i.r, dir, settings.getProjectMapping(), failedBuilds);
+        }
         return fb.toBuild(new HashSet<>());
     }
 
+    private static File[] listDirs(File dir) {
+        final File[] dirs = dir.listFiles(new DirFilter());
+        return dirs == null ? new File[0] : dirs;
+    }
+
+    private static FileTime lastModified(File dir) {
+        try {
+            return Files.getLastModifiedTime(dir.toPath());
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    private static class ProjectEntry {
+
+        private final File dir;
+        private final Map<String, VersionEntry> versions = new ConcurrentSkipListMap<>();
+        private FileTime lastModified;
+        // builds usable by old api, newest first
+        private List<FakeBuild> sorted = Collections.emptyList();
+
+        ProjectEntry(File dir) {
+            this.dir = dir;
+        }
+
+        Stream<FakeBuild> builds() {
+            return versions.values().stream().flatMap(version -> version.releases.values().stream());
+        }
+
+        void sort(FailedBuildsCache failedBuilds) {
+            final Map<FakeBuild, Date> finished = builds()
+                    .filter(FakeKojiDB::isOkForOldApi)
+                    .collect(Collectors.toMap(build -> build, FakeBuild::getFinishingDate));
+            //warm up the verdicts, so listBuilds requests do not have to walk the builds
+            finished.keySet().forEach(build -> failedBuilds.isFailed(build.getDir()));
+            sorted = finished.keySet().stream()
+                    .sorted(Comparator.comparing(finished::get).reversed())
+                    .collect(Collectors.collectingAndThen(Collectors.toList(), Collections::unmodifiableList));
+        }
+
+        boolean refresh(ProjectMapping projectMapping, FailedBuildsCache failedBuilds) {
+            boolean changed = false;
+            final FileTime modified = lastModified(dir);
+            if (!modified.equals(lastModified)) {
+                lastModified = modified;
+                final Set<String> found = new HashSet<>();
+                for (File versionDir : listDirs(dir)) {
+                    found.add(versionDir.getName());
+                    if (!versions.containsKey(versionDir.getName())) {
+                        versions.put(versionDir.getName(), new VersionEntry(versionDir));
+                        changed = true;
+                    }
+                }
+                changed |= versions.keySet().retainAll(found);
+            }
+            for (VersionEntry version : versions.values()) {
+                changed |= version.refresh(dir.getName(), projectMapping, failedBuilds);
+            }
+            return changed;
+        }
+    }
+
+    /**
+     * Immutable lookup tables, replaced as whole on each change of the index,
+     * so requests never wait for refresh.
+     */
+    private static class Snapshot {
+
+        private final Map<String, Integer> projectIds = new HashMap<>();
+        private final List<FakeBuild> builds;
+        private final Map<Integer, FakeBuild> buildsById = new HashMap<>();
+        private final Map<Integer, List<FakeBuild>> projectBuilds = new HashMap<>();
+
+        Snapshot(Collection<ProjectEntry> projects) {
+            final List<FakeBuild> all = new ArrayList<>();
+            for (ProjectEntry project : projects) {
+                final String name = project.dir.getName();
+                //is there better str->int function?
+                //indeed, the file. But number of projects is small.
+                projectIds.put(name, name.hashCode());
+                projectBuilds.put(name.hashCode(), project.sorted);
+                project.builds().forEach(build -> {
+                    all.add(build);
+                    buildsById.put(build.getBuildID(), build);
+                });
+            }
+            builds = Collections.unmodifiableList(all);
+        }
+    }
+
+    private static class VersionEntry {
+
+        private final File dir;
+        private volatile Map<String, FakeBuild> releases = Collections.emptyMap();
+        private FileTime lastModified;
+
+        VersionEntry(File dir) {
+            this.dir = dir;
+        }
+
+        boolean refresh(String projectName, ProjectMapping projectMapping, FailedBuildsCache failedBuilds) {
+            final FileTime modified = lastModified(dir);
+            if (modified.equals(lastModified)) {
+                return false;
+            }
+            lastModified = modified;
+            final Map<String, FakeBuild> found = new TreeMap<>();
+            for (File releaseDir : listDirs(dir)) {
+                final FakeBuild known = releases.get(releaseDir.getName());
+                found.put(releaseDir.getName(), known != null
+                        ? known
+                        : new FakeBuild(projectName, dir.getName(), releaseDir.getName(), releaseDir, projectMapping, failedBuilds));
+            }
+            final boolean changed = !found.keySet().equals(releases.keySet());
+            releases = Collections.unmodifiableMap(found);
+            return changed;
+        }
+    }
+
 }
@@ -0,0 +1,185 @@
+package org.fakekoji.core;
+
+import org.fakekoji.xmlrpc.server.JavaServerConstants;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps {@link FakeKojiDB} in sync with the builds directory, so no xml-rpc
+ * request has to rescan it. Every directory of the tree is registered to a
+ * WatchService, thus new builds, uploaded archives and FAILED markers are
+ * noticed shortly after ScpService writes them. Events can be lost (overflow,
+ * file systems without notifications), so the DB is also reconciled
+ * periodically.
+ */
+public class FakeKojiDBWatcher implements Closeable {
+
+    private static final Logger LOGGER = Logger.getLogger(JavaServerConstants.FAKE_KOJI_LOGGER);
+
+    // how long to wait for further events before refreshing the DB
+    public static final long DEFAULT_SETTLE_MILLIS = 500;
+    public static final long DEFAULT_RECONCILE_MILLIS = 60 * 1000;
+    // upload of big build produces stream of events, do not postpone refresh forever
+    private static final int MAX_SETTLE_ROUNDS = 10;
+
+    private final FakeKojiDB db;
+    private final Path root;
+    private final long settleMillis;
+    private final long reconcileMillis;
+    private final Map<WatchKey, Path> keys = new HashMap<>();
+
+    private volatile WatchService watchService;
+    private Thread thread;
+    private volatile boolean running;
+
+    public FakeKojiDBWatcher(FakeKojiDB db, Path root) {
+        this(db, root, DEFAULT_SETTLE_MILLIS, DEFAULT_RECONCILE_MILLIS);
+    }
+
+    public FakeKojiDBWatcher(FakeKojiDB db, Path root, long settleMillis, long reconcileMillis) {
+        this.db = db;
+        this.root = root;
+        this.settleMillis = settleMillis;
+        this.reconcileMillis = reconcileMillis;
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        try {
+            watchService = root.getFileSystem().newWatchService();
+            registerAll(root);
+            LOGGER.info("Watching " + keys.size() + " directories of " + root);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Unable to watch " + root + ", relying on periodic reconcile only", e);
+            closeWatchService();
+            watchService = null;
+        }
+        running = true;
+        thread = new Thread(this::watch, "fake-koji-db-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public synchronized void close() {
+        running = false;
+        closeWatchService();
+        if (thread != null) {
+            thread.interrupt();
+            thread = null;
+        }
+    }
+
+    private void watch() {
+        long nextReconcile = System.currentTimeMillis() + reconcileMillis;
+        while (running) {
+            try {
+                final long wait = Math.max(1, nextReconcile - System.currentTimeMillis());
+                final Set<Path> changed = new HashSet<>();
+                if (watchService == null) {
+                    Thread.sleep(wait);
+                } else {
+                    WatchKey key = watchService.poll(wait, TimeUnit.MILLISECONDS);
+                    int rounds = 0;
+                    while (key != null) {
+                        process(key, changed);
+                        key = ++rounds < MAX_SETTLE_ROUNDS
+                                ? watchService.poll(settleMillis, TimeUnit.MILLISECONDS)
+                                : null;
+                    }
+                }
+                if (System.currentTimeMillis() >= nextReconcile) {
+                    changed.add(root);
+                    nextReconcile = System.currentTimeMillis() + reconcileMillis;
+                }
+                if (!changed.isEmpty()) {
+                    db.refresh(changed);
+                }
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Failed to refresh fake koji DB", e);
+            }
+        }
+    }
+
+    private void process(WatchKey key, Set<Path> changed) {
+        final Path dir = keys.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (dir == null || event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                LOGGER.warning("Watch events of " + root + " overflowed, registering the tree again");
+                registerAllQuietly(root);
+                changed.add(root);
+                continue;
+            }
+            final Path child = dir.resolve((Path) event.context());
+            changed.add(child);
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(child)) {
+                registerAllQuietly(child);
+            }
+        }
+        if (!key.reset()) {
+            keys.remove(key);
+        }
+    }
+
+    private void registerAllQuietly(Path start) {
+        try {
+            registerAll(start);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Unable to watch " + start, e);
+        }
+    }
+
+    private void registerAll(Path start) throws IOException {
+        Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                final WatchKey key = dir.register(
+                        watchService,
+                        StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_DELETE,
+                        StandardWatchEventKinds.ENTRY_MODIFY
+                );
+                keys.put(key, dir);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void closeWatchService() {
+        if (watchService == null) {
+            return;
+        }
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to close watch service", e);
+        }
+    }
+}
@@ -94,7 +94,7 @@ public class MatrixGenerator {
         }
 
         try {
-            cache = new ConfigCache(settings.getConfigManager());
+            cache = settings.getConfigManager().getConfigCache();
         } catch (StorageException se) {
             throw new RuntimeException(se);
         }
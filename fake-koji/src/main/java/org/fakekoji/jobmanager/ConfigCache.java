@@ -11,9 +11,11 @@ import org.fakekoji.model.TaskVariant;
 import org.fakekoji.storage.StorageException;
 
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -27,43 +29,46 @@ public class ConfigCache {
     private final Map<String, Task> taskMap;
     private final Map<String, TaskVariant> testVariantMap;
     private final Map<String, TaskVariant> buildVariantMap;
+    private final long revision;
 
-
+    /**
+     * Loads fresh copy of the configuration. Prefer shared
+     * {@link ConfigManager#getConfigCache()}.
+     */
     public ConfigCache(final ConfigManager configManager) throws StorageException {
-        buildProviderMap = configManager.buildProviderManager
-                .readAll()
-                .stream()
-                .collect(Collectors.toMap(BuildProvider::getId, buildProvider -> buildProvider));
-        buildVariantMap = configManager.taskVariantManager
-                .readAll()
-                .stream()
-                .filter(variant -> variant.getType().equals(Task.Type.BUILD))
-                .collect(Collectors.toMap(TaskVariant::getId, taskVariant -> taskVariant));
-        jdkProjectMap = configManager.jdkProjectManager
-                .readAll()
-                .stream()
-                .collect(Collectors.toMap(JDKProject::getId, jdkProject -> jdkProject));
-        jdkTestProjectMap = configManager.jdkTestProjectManager
-                .readAll()
-                .stream()
-                .collect(Collectors.toMap(JDKTestProject::getId, jdkTestProject-> jdkTestProject));
-        jdkVersionMap = configManager.jdkVersionManager
-                .readAll()
-                .stream()
-                .collect(Collectors.toMap(JDKVersion::getId, jdkVersion -> jdkVersion));
-        platformMap = configManager.platformManager
-                .readAll()
-                .stream()
-                .collect(Collectors.toMap(Platform::getId, platform -> platform));
-        taskMap = configManager.taskManager.readAll()
-                .stream()
-                .collect(Collectors.toMap(Task::getId, task -> task));
-        testVariantMap = configManager.taskVariantManager
-                .readAll()
-                .stream()
-                .filter(variant -> variant.getType().equals(Task.Type.TEST))
-                .collect(Collectors.toMap(TaskVariant::getId, taskVariant -> taskVariant));
-
+        this(configManager, -1);
+    }
+
+    ConfigCache(final ConfigManager configManager, final long revision) throws StorageException {
+        this.revision = revision;
+        final List<TaskVariant> taskVariants = configManager.taskVariantManager.readAll();
+        buildProviderMap = index(configManager.buildProviderManager.readAll(), BuildProvider::getId);
+        buildVariantMap = index(
+                taskVariants.stream()
+                        .filter(variant -> variant.getType().equals(Task.Type.BUILD))
+                        .collect(Collectors.toList()),
+                TaskVariant::getId
+        );
+        jdkProjectMap = index(configManager.jdkProjectManager.readAll(), JDKProject::getId);
+        jdkTestProjectMap = index(configManager.jdkTestProjectManager.readAll(), JDKTestProject::getId);
+        jdkVersionMap = index(configManager.jdkVersionManager.readAll(), JDKVersion::getId);
+        platformMap = index(configManager.platformManager.readAll(), Platform::getId);
+        taskMap = index(configManager.taskManager.readAll(), Task::getId);
+        testVariantMap = index(
+                taskVariants.stream()
+                        .filter(variant -> variant.getType().equals(Task.Type.TEST))
+                        .collect(Collectors.toList()),
+                TaskVariant::getId
+        );
+    }
+
+    // the snapshot is shared, nobody may modify it
+    private static <T> Map<String, T> index(final List<T> items, final Function<T, String> id) {
+        return Collections.unmodifiableMap(items.stream().collect(Collectors.toMap(id, item -> item)));
+    }
+
+    long getRevision() {
+        return revision;
     }
 
     public Collection<BuildProvider> getBuildProviders() {
@@ -18,7 +18,7 @@ import org.fakekoji.model.JDKVersion;
 import org.fakekoji.model.Platform;
 import org.fakekoji.model.Task;
 import org.fakekoji.model.TaskVariant;
-import org.fakekoji.storage.DirectoryJsonStorage;
+import org.fakekoji.storage.CachingStorage;
 import org.fakekoji.storage.Storage;
 import org.fakekoji.storage.StorageException;
 
@@ -43,22 +43,18 @@ public class ConfigManager {
     public final JDKTestProjectManager jdkTestProjectManager;
     public final TaskManager taskManager;
 
+    private final List<CachingStorage<?>> storages = new ArrayList<>();
+    private volatile ConfigCache configCache;
+
     public ConfigManager(final AccessibleSettings settings) {
         final String storagePath = settings.getConfigRoot().getAbsolutePath();
-        Storage<BuildProvider> buildProviderStorage =
-                new DirectoryJsonStorage<>(Paths.get(storagePath, BUILD_PROVIDERS).toFile());
-        Storage<JDKVersion> jdkVersionStorage =
-                new DirectoryJsonStorage<>(Paths.get(storagePath, JDK_VERSIONS).toFile());
-        Storage<TaskVariant> taskVariantStorage =
-                new DirectoryJsonStorage<>(Paths.get(storagePath, TASK_VARIANTS).toFile());
-        Storage<Platform> platformStorage =
-                new DirectoryJsonStorage<>(Paths.get(storagePath, PLATFORMS).toFile());
-        Storage<JDKProject> jdkProjectStorage =
-                new DirectoryJsonStorage<>(Paths.get(storagePath, JDK_PROJECTS).toFile());
-        Storage<JDKTestProject> jdkTestProjectStorage =
-                new DirectoryJsonStorage<>(Paths.get(storagePath, JDK_TEST_PROJECTS).toFile());
-        Storage<Task> taskStorage =
-                new DirectoryJsonStorage<>(Paths.get(storagePath, TASKS).toFile());
+        Storage<BuildProvider> buildProviderStorage = createStorage(storagePath, BUILD_PROVIDERS, BuildProvider.class);
+        Storage<JDKVersion> jdkVersionStorage = createStorage(storagePath, JDK_VERSIONS, JDKVersion.class);
+        Storage<TaskVariant> taskVariantStorage = createStorage(storagePath, TASK_VARIANTS, TaskVariant.class);
+        Storage<Platform> platformStorage = createStorage(storagePath, PLATFORMS, Platform.class);
+        Storage<JDKProject> jdkProjectStorage = createStorage(storagePath, JDK_PROJECTS, JDKProject.class);
+        Storage<JDKTestProject> jdkTestProjectStorage = createStorage(storagePath, JDK_TEST_PROJECTS, JDKTestProject.class);
+        Storage<Task> taskStorage = createStorage(storagePath, TASKS, Task.class);
 
         buildProviderManager = new BuildProviderManager(buildProviderStorage);
         jdkVersionManager = new JDKVersionManager(jdkVersionStorage);
@@ -73,6 +69,45 @@ public class ConfigManager {
         jdkTestProjectManager = new JDKTestProjectManager(jdkTestProjectStorage);
         taskManager = new TaskManager(taskStorage);
     }
+
+    private <T> Storage<T> createStorage(final String storagePath, final String name, final Class<T> valueType) {
+        final CachingStorage<T> storage = new CachingStorage<>(Paths.get(storagePath, name).toFile(), valueType);
+        storages.add(storage);
+        return storage;
+    }
+
+    /**
+     * Shared snapshot of the whole configuration. It is built again only after
+     * something in the config directories changed, either through the managers
+     * or from outside, so parsers and generators can ask for it freely.
+     */
+    public ConfigCache getConfigCache() throws StorageException {
+        final long revision = getRevision();
+        final ConfigCache cache = configCache;
+        if (cache != null && cache.getRevision() == revision) {
+            return cache;
+        }
+        synchronized (this) {
+            final long recheckRevision = getRevision();
+            final ConfigCache recheck = configCache;
+            if (recheck != null && recheck.getRevision() == recheckRevision) {
+                return recheck;
+            }
+            // revision is taken before reading, so a write during the load makes it stale
+            final ConfigCache loaded = new ConfigCache(this, recheckRevision);
+            configCache = loaded;
+            return loaded;
+        }
+    }
+
+    // storage revisions only grow, so does their sum
+    private long getRevision() throws StorageException {
+        long revision = 0;
+        for (final CachingStorage<?> storage : storages) {
+            revision += storage.getRevision();
+        }
+        return revision;
+    }
     
     public Result<List<Project>, OToolError> getProjects(final List<String> projectIds) {
         final List<Project> projects = new ArrayList<>();
@@ -95,5 +130,4 @@ public class ConfigManager {
         }
         return Result.ok(projects);
     }
-
 }
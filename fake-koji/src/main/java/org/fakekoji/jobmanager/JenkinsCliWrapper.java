@@ -7,6 +7,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.Arrays;
 import java.util.Set;
+import java.util.concurrent.Semaphore;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.apache.sshd.client.SshClient;
@@ -24,6 +25,10 @@ import org.fakekoji.xmlrpc.server.JavaServerConstants;
 public class JenkinsCliWrapper {
 
     private static final Logger LOGGER = Logger.getLogger(JavaServerConstants.FAKE_KOJI_LOGGER);
+    public static final String CONNECTIONS_PROPERTY = "fakekoji.jenkins.cliConnections";
+
+    // jobs are updated in parallel, but jenkins should not get more cli sessions than this at once
+    private static final Semaphore connections = new Semaphore(Math.max(1, Integer.getInteger(CONNECTIONS_PROPERTY, 4)), true);
 
     private final String host;
     private final int port;
@@ -145,6 +150,15 @@ public class JenkinsCliWrapper {
     }
 
     ClientResponse syncSshExec(String cmd, InputStream is) throws IOException, InterruptedException {
+        connections.acquire();
+        try {
+            return doSyncSshExec(cmd, is);
+        } finally {
+            connections.release();
+        }
+    }
+
+    private ClientResponse doSyncSshExec(String cmd, InputStream is) throws IOException, InterruptedException {
         LOGGER.log(Level.INFO, "Executing: ssh -p {0} " + user + "@{1} {2}", new Object[]{port, host, cmd});
         try (SshClient client = SshClient.setUpDefaultClient()) {
             client.start();
@@ -19,7 +19,10 @@ import org.fakekoji.xmlrpc.server.JavaServerConstants;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
@@ -29,6 +32,10 @@ import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.logging.Level;
@@ -41,6 +48,19 @@ public class JenkinsJobUpdater implements JobUpdater {
 
     private static final Logger LOGGER = Logger.getLogger(JavaServerConstants.FAKE_KOJI_LOGGER);
     public static final String JENKINS_JOB_CONFIG_FILE = "config.xml";
+    // sha-256, time stamp and size of config.xml as it was last written by us
+    static final String JENKINS_JOB_CONFIG_HASH_FILE = ".config.xml.sha256";
+    public static final String THREADS_PROPERTY = "fakekoji.jobs.threads";
+
+    // jobs are independent of each other, so their templates and files are done in parallel
+    private static final ExecutorService workers = Executors.newFixedThreadPool(
+            Math.max(1, Integer.getInteger(THREADS_PROPERTY, 8)),
+            runnable -> {
+                final Thread thread = new Thread(runnable, "job-updater");
+                thread.setDaemon(true);
+                return thread;
+            }
+    );
 
     private final ConfigManager configManager;
     private final JDKProjectParser jdkProjectParser;
@@ -84,7 +104,10 @@ public class JenkinsJobUpdater implements JobUpdater {
                         ||
                         ((job instanceof TestJob) && ((TestJob) job).getBuildPlatform().getId().equals(platform.getId()))
         );
-        final List<JobUpdateResult> jobsRewritten = update(platformJobPredicate, jobUpdateFunctionWrapper(getRewriteFunction()));
+        final List<JobUpdateResult> jobsRewritten;
+        try (Utils.WriteBatch writeBatch = Utils.startWriteBatch()) {
+            jobsRewritten = update(platformJobPredicate, jobUpdateFunctionWrapper(getRewriteFunction(writeBatch)));
+        }
         return new JobUpdateResults(
                 Collections.emptyList(),
                 Collections.emptyList(),
@@ -98,7 +121,10 @@ public class JenkinsJobUpdater implements JobUpdater {
         wakeUpJenkins();
         final Predicate<Job> taskJobPredicate = job ->
                 job instanceof TaskJob && ((TaskJob) job).getTask().getId().equals(task.getId());
-        final List<JobUpdateResult> jobsRewritten = update(taskJobPredicate, jobUpdateFunctionWrapper(getRewriteFunction()));
+        final List<JobUpdateResult> jobsRewritten;
+        try (Utils.WriteBatch writeBatch = Utils.startWriteBatch()) {
+            jobsRewritten = update(taskJobPredicate, jobUpdateFunctionWrapper(getRewriteFunction(writeBatch)));
+        }
         return new JobUpdateResults(
                 Collections.emptyList(),
                 Collections.emptyList(),
@@ -137,10 +163,10 @@ public class JenkinsJobUpdater implements JobUpdater {
                 .flatMap(Collection::stream)
                 .collect(Collectors.toSet());
 
-        return jobs.stream()
+        return collect(jobs.stream()
                 .filter(jobPredicate)
-                .map(jobUpdateFunction)
-                .collect(Collectors.toList());
+                .map(job -> submit(jobUpdateFunction, job))
+                .collect(Collectors.toList()));
     }
 
     /**
@@ -152,17 +178,21 @@ public class JenkinsJobUpdater implements JobUpdater {
      * @return
      */
     JobUpdateResults regenerate(Set<Job> jobs, String whitelist) {
+        try (Utils.WriteBatch writeBatch = Utils.startWriteBatch()) {
+            return startRegenerate(jobs, whitelist, writeBatch).get();
+        }
+    }
+
+    private PendingResults startRegenerate(Set<Job> jobs, String whitelist, Utils.WriteBatch writeBatch) {
         if (whitelist == null || whitelist.trim().isEmpty()) {
             whitelist = ".*";
         }
         Pattern whitelistPattern = Pattern.compile(whitelist);
-        final Function<Job, JobUpdateResult> rewriteFunction = jobUpdateFunctionWrapper(getRewriteFunction());
-        final Function<Job, JobUpdateResult> createFunction = jobUpdateFunctionWrapper(getCreateFunction());
-        final Function<Job, JobUpdateResult> reviveFunction = jobUpdateFunctionWrapper(getReviveFunction());
+        final Function<Job, JobUpdateResult> rewriteFunction = jobUpdateFunctionWrapper(getRewriteFunction(writeBatch));
+        final Function<Job, JobUpdateResult> createFunction = jobUpdateFunctionWrapper(getCreateFunction(writeBatch));
+        final Function<Job, JobUpdateResult> reviveFunction = jobUpdateFunctionWrapper(getReviveFunction(writeBatch));
 
-        final List<JobUpdateResult> jobsCreated = new LinkedList<>();
-        final List<JobUpdateResult> jobsRewritten = new LinkedList<>();
-        final List<JobUpdateResult> jobsRevived = new LinkedList<>();
+        final PendingResults results = new PendingResults();
 
         final Set<String> archivedJobs = new HashSet<>(Arrays.asList(Objects.requireNonNull(jenkinsJobArchiveRoot.list())));
         final Set<String> existingJobs = new HashSet<>(Arrays.asList(Objects.requireNonNull(jenkinsJobsRoot.list())));
@@ -173,22 +203,16 @@ public class JenkinsJobUpdater implements JobUpdater {
             }
             if (archivedJobs.contains(job.toString()) && existingJobs.contains(job.toString())) {
                 ///very wierd!
-                jobsRewritten.add(rewriteFunction.apply(job));
+                results.jobsRewritten.add(submit(rewriteFunction, job));
             } else if (archivedJobs.contains(job.toString())) {
-                jobsRevived.add(reviveFunction.apply(job));
+                results.jobsRevived.add(submit(reviveFunction, job));
             } else if (existingJobs.contains(job.toString())) {
-                jobsRewritten.add(rewriteFunction.apply(job));
+                results.jobsRewritten.add(submit(rewriteFunction, job));
             } else {
-                jobsCreated.add(createFunction.apply(job));
+                results.jobsCreated.add(submit(createFunction, job));
             }
         }
-
-        return new JobUpdateResults(
-                jobsCreated,
-                new LinkedList<JobUpdateResult>(),
-                jobsRewritten,
-                jobsRevived
-        );
+        return results;
     }
 
     /**
@@ -204,71 +228,77 @@ public class JenkinsJobUpdater implements JobUpdater {
         JobUpdateResults sum = new JobUpdateResults();
         JenkinsJobUpdater.wakeUpJenkins();
         final List<T> projects = projectManager.readAll();
+        // parsed up front, so a broken project fails the call before any job is touched
+        final List<Set<Job>> projectsJobs = new ArrayList<>();
         for (final Project project : projects) {
             if (projectId == null || project.getId().equals(projectId)) {
-                JobUpdateResults r = regenerate(project, whitelist);
-                sum = sum.add(r);
+                projectsJobs.add(jdkProjectParser.parse(project));
+            }
+        }
+        try (Utils.WriteBatch writeBatch = Utils.startWriteBatch()) {
+            // all projects are submitted first, so small projects do not leave workers idle
+            final List<PendingResults> pending = new ArrayList<>();
+            for (final Set<Job> jobs : projectsJobs) {
+                pending.add(startRegenerate(jobs, whitelist, writeBatch));
+            }
+            for (final PendingResults results : pending) {
+                sum = sum.add(results.get());
             }
-
         }
         return sum;
     }
 
     JobUpdateResults update(Set<Job> oldJobs, Set<Job> newJobs) {
 
-        final Function<Job, JobUpdateResult> rewriteFunction = jobUpdateFunctionWrapper(getRewriteFunction());
-        final Function<Job, JobUpdateResult> createFunction = jobUpdateFunctionWrapper(getCreateFunction());
-        final Function<Job, JobUpdateResult> archiveFunction = jobUpdateFunctionWrapper(getArchiveFunction());
-        final Function<Job, JobUpdateResult> reviveFunction = jobUpdateFunctionWrapper(getReviveFunction());
-
-        final List<JobUpdateResult> jobsCreated = new LinkedList<>();
-        final List<JobUpdateResult> jobsArchived = new LinkedList<>();
-        final List<JobUpdateResult> jobsRewritten = new LinkedList<>();
-        final List<JobUpdateResult> jobsRevived = new LinkedList<>();
+        final PendingResults results = new PendingResults();
 
         final Set<String> archivedJobs = new HashSet<>(Arrays.asList(Objects.requireNonNull(jenkinsJobArchiveRoot.list())));
 
         wakeUpJenkins();
 
-        for (final Job job : oldJobs) {
-            if (newJobs.stream().noneMatch(newJob -> job.toString().equals(newJob.toString()))) {
-                jobsArchived.add(archiveFunction.apply(job));
-            }
-        }
-        for (final Job job : newJobs) {
-            if (archivedJobs.contains(job.toString())) {
-                jobsRevived.add(reviveFunction.apply(job));
-                continue;
+        try (Utils.WriteBatch writeBatch = Utils.startWriteBatch()) {
+            final Function<Job, JobUpdateResult> rewriteFunction = jobUpdateFunctionWrapper(getRewriteFunction(writeBatch));
+            final Function<Job, JobUpdateResult> createFunction = jobUpdateFunctionWrapper(getCreateFunction(writeBatch));
+            final Function<Job, JobUpdateResult> archiveFunction = jobUpdateFunctionWrapper(getArchiveFunction());
+            final Function<Job, JobUpdateResult> reviveFunction = jobUpdateFunctionWrapper(getReviveFunction(writeBatch));
+
+            for (final Job job : oldJobs) {
+                if (newJobs.stream().noneMatch(newJob -> job.toString().equals(newJob.toString()))) {
+                    results.jobsArchived.add(submit(archiveFunction, job));
+                }
             }
-            final Optional<Job> optional = oldJobs.stream()
-                    .filter(oldJob -> job.toString().equals(oldJob.toString()))
-                    .findAny();
-            if (optional.isPresent()) {
-                final Job oldJob = optional.get();
-                if (!oldJob.equals(job)) {
-                    jobsRewritten.add(rewriteFunction.apply(job));
+            for (final Job job : newJobs) {
+                if (archivedJobs.contains(job.toString())) {
+                    results.jobsRevived.add(submit(reviveFunction, job));
+                    continue;
                 }
-                continue;
+                final Optional<Job> optional = oldJobs.stream()
+                        .filter(oldJob -> job.toString().equals(oldJob.toString()))
+                        .findAny();
+                if (optional.isPresent()) {
+                    final Job oldJob = optional.get();
+                    if (!oldJob.equals(job)) {
+                        results.jobsRewritten.add(submit(rewriteFunction, job));
+                    }
+                    continue;
+                }
+                results.jobsCreated.add(submit(createFunction, job));
             }
-            jobsCreated.add(createFunction.apply(job));
+            return results.get();
         }
-        return new JobUpdateResults(
-                jobsCreated,
-                jobsArchived,
-                jobsRewritten,
-                jobsRevived
-        );
     }
 
     public JobUpdateResults bump(final Set<JobBump> jobBumps, final JobCollisionAction action) {
-        return new JobUpdateResults(
-                jobBumps.stream()
-                        .map(jobUpdateFunctionWrapper(getBumpFunction(action)))
-                        .collect(Collectors.toList()),
-                Collections.emptyList(),
-                Collections.emptyList(),
-                Collections.emptyList()
-        );
+        try (Utils.WriteBatch writeBatch = Utils.startWriteBatch()) {
+            return new JobUpdateResults(
+                    jobBumps.stream()
+                            .map(jobUpdateFunctionWrapper(getBumpFunction(action, writeBatch)))
+                            .collect(Collectors.toList()),
+                    Collections.emptyList(),
+                    Collections.emptyList(),
+                    Collections.emptyList()
+            );
+        }
     }
 
     public Set<Tuple<Job, Job>> findCollisions(final Set<Tuple<Job, Job>> jobTuples) {
@@ -296,6 +326,30 @@ public class JenkinsJobUpdater implements JobUpdater {
         };
     }
 
+    private static <T> Future<JobUpdateResult> submit(final Function<T, JobUpdateResult> function, final T job) {
+        return workers.submit(() -> function.apply(job));
+    }
+
+    /**
+     * Waits for the results, which are kept in the order of submission, so they are
+     * the same as if the jobs were processed one by one.
+     */
+    private static List<JobUpdateResult> collect(final List<Future<JobUpdateResult>> futures) {
+        final List<JobUpdateResult> results = new LinkedList<>();
+        for (final Future<JobUpdateResult> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                // update functions report exceptions in results, this is an Error
+                throw new RuntimeException(e.getCause());
+            }
+        }
+        return results;
+    }
+
     private <T> String jobToString(T job) {
         if (job instanceof Job) {
             return ((Job) job).getName();
@@ -306,7 +360,7 @@ public class JenkinsJobUpdater implements JobUpdater {
         }
     }
 
-    private JobUpdateFunction<Job> getCreateFunction() {
+    private JobUpdateFunction<Job> getCreateFunction(final Utils.WriteBatch writeBatch) {
         return job -> {
             final String jobName = job.toString();
             LOGGER.info("Creating job " + jobName);
@@ -320,17 +374,14 @@ public class JenkinsJobUpdater implements JobUpdater {
             LOGGER.info("Creating file " + JENKINS_JOB_CONFIG_FILE + " in " + jobDirPath);
             return new PrimaryExceptionThrower<JobUpdateResult>(
                     () -> {
-                        Utils.writeToFile(
-                                Paths.get(jobDirPath, JENKINS_JOB_CONFIG_FILE),
-                                job.generateTemplate()
-                        );
+                        writeJobConfig(jobDir, job.generateTemplate(), writeBatch);
                     }, () -> {
                 createManuallyUploadedJob(jobName);
             }, new JobUpdateResult(jobName, true)).call();
         };
     }
 
-    private JobUpdateFunction<Job> getReviveFunction() {
+    private JobUpdateFunction<Job> getReviveFunction(final Utils.WriteBatch writeBatch) {
         return job -> {
             final String jobName = job.toString();
             final File src = Paths.get(jenkinsJobArchiveRoot.getAbsolutePath(), job.toString()).toFile();
@@ -342,9 +393,7 @@ public class JenkinsJobUpdater implements JobUpdater {
                         Utils.moveDirByCopy(src, dst);
                         //regenerate conig
                         LOGGER.info("recreating file " + JENKINS_JOB_CONFIG_FILE + " in " + dst);
-                        Utils.writeToFile(
-                                Paths.get(dst.getAbsolutePath(), JENKINS_JOB_CONFIG_FILE),
-                                job.generateTemplate());
+                        writeJobConfig(dst, job.generateTemplate(), writeBatch);
                     }, () -> {
                 createManuallyUploadedJob(jobName);
             }, new JobUpdateResult(jobName, true)).call();
@@ -365,15 +414,21 @@ public class JenkinsJobUpdater implements JobUpdater {
         };
     }
 
-    private JobUpdateFunction<Job> getRewriteFunction() {
+    private JobUpdateFunction<Job> getRewriteFunction(final Utils.WriteBatch writeBatch) {
         return job -> {
             final String jobName = job.toString();
-            final File jobConfig = Paths.get(jenkinsJobsRoot.getAbsolutePath(), jobName, JENKINS_JOB_CONFIG_FILE).toFile();
+            final File jobDir = Paths.get(jenkinsJobsRoot.getAbsolutePath(), jobName).toFile();
+            final String template = job.generateTemplate();
+            if (!isJobConfigChanged(jobDir, template, writeBatch)) {
+                // no need to bother jenkins with reload either
+                LOGGER.fine("Job " + jobName + " is not changed");
+                return new JobUpdateResult(jobName, true, "not changed");
+            }
             LOGGER.info("Rewriting job " + jobName);
-            LOGGER.info("Writing to file " + jobConfig.getAbsolutePath());
+            LOGGER.info("Writing to file " + new File(jobDir, JENKINS_JOB_CONFIG_FILE).getAbsolutePath());
             return new PrimaryExceptionThrower<JobUpdateResult>(
                     () -> {
-                        Utils.writeToFile(jobConfig, job.generateTemplate());
+                        writeJobConfig(jobDir, template, writeBatch);
                     }, () -> {
                 updateManuallyUpdatedJob(jobName);
             }, new JobUpdateResult(jobName, true)).call();
@@ -381,6 +436,10 @@ public class JenkinsJobUpdater implements JobUpdater {
     }
 
     JobUpdateFunction<JobBump> getBumpFunction(final JobCollisionAction action) {
+        return getBumpFunction(action, null);
+    }
+
+    private JobUpdateFunction<JobBump> getBumpFunction(final JobCollisionAction action, final Utils.WriteBatch writeBatch) {
         return jobBump -> {
             final boolean isCollision = jobBump.isCollision;
             final String fromName = jobBump.from.getName();
@@ -420,7 +479,7 @@ public class JenkinsJobUpdater implements JobUpdater {
             }
             Utils.moveDir(fromDir, toDir); //just move, not copying, should be the same mount in all cases, and it is huge speedup. If exception is thrown from here, better to die with it
             final Result<Void, String> deleteJobResult = deleteJenkinsJob(fromName);
-            final Result<Void, String> updateJobConfigResult = updateJenkinsJob(jobBump.to);
+            final Result<Void, String> updateJobConfigResult = updateJenkinsJob(jobBump.to, writeBatch);
             final Result<Void, String> createJobResult = createJenkinsJob(toName);
             if (deleteJobResult.isOk() && updateJobConfigResult.isOk() && createJobResult.isOk()) {
                 return new JobUpdateResult(toName, true, "bumped from " + fromName + " to " + toName);
@@ -477,16 +536,15 @@ public class JenkinsJobUpdater implements JobUpdater {
         }
     }
 
-    private Result<Void, String> updateJenkinsJob(final Job job) {
+    private Result<Void, String> updateJenkinsJob(final Job job, final Utils.WriteBatch writeBatch) {
         final String jobName = job.getName();
         LOGGER.info("Rewriting config of " + jobName);
-        final File jobConfigFile = Paths.get(
-                jenkinsJobsRoot.getAbsolutePath(),
-                jobName,
-                JENKINS_JOB_CONFIG_FILE
-        ).toFile();
+        final File jobDir = Paths.get(jenkinsJobsRoot.getAbsolutePath(), jobName).toFile();
         try {
-            Utils.writeToFile(jobConfigFile, job.generateTemplate());
+            final String template = job.generateTemplate();
+            if (isJobConfigChanged(jobDir, template, writeBatch)) {
+                writeJobConfig(jobDir, template, writeBatch);
+            }
             return Result.ok(null);
         } catch (IOException e) {
             LOGGER.log(Level.SEVERE, e.getMessage(), e);
@@ -494,6 +552,77 @@ public class JenkinsJobUpdater implements JobUpdater {
         }
     }
 
+    /**
+     * Compares hash of the template with hash of config.xml. The hash of config.xml is
+     * taken from the index file next to it, so it is not read, unless it was changed
+     * by someone else since we wrote it.
+     */
+    static boolean isJobConfigChanged(
+            final File jobDir,
+            final String template,
+            final Utils.WriteBatch writeBatch
+    ) throws IOException {
+        final File config = new File(jobDir, JENKINS_JOB_CONFIG_FILE);
+        if (!config.isFile()) {
+            return true;
+        }
+        final String configHash = getConfigHash(jobDir, config, writeBatch);
+        return !configHash.equals(Job.truncatedSha(template, Integer.MAX_VALUE));
+    }
+
+    private static String getConfigHash(
+            final File jobDir,
+            final File config,
+            final Utils.WriteBatch writeBatch
+    ) throws IOException {
+        final File hashFile = new File(jobDir, JENKINS_JOB_CONFIG_HASH_FILE);
+        if (hashFile.isFile()) {
+            final String[] index = Utils.readFile(hashFile).trim().split(" ");
+            if (index.length == 3
+                    && index[1].equals(String.valueOf(config.lastModified()))
+                    && index[2].equals(String.valueOf(config.length()))) {
+                return index[0];
+            }
+        }
+        final long modified = config.lastModified();
+        final long length = config.length();
+        final String hash = Job.truncatedSha(
+                new String(Files.readAllBytes(config.toPath()), StandardCharsets.UTF_8),
+                Integer.MAX_VALUE
+        );
+        writeConfigHash(jobDir, hash, modified, length, writeBatch);
+        return hash;
+    }
+
+    /**
+     * Writes config.xml of the job and remembers its hash in the index file.
+     */
+    static void writeJobConfig(final File jobDir, final String template, final Utils.WriteBatch writeBatch) throws IOException {
+        final File config = new File(jobDir, JENKINS_JOB_CONFIG_FILE);
+        Utils.writeToFile(config, template, writeBatch);
+        writeConfigHash(
+                jobDir,
+                Job.truncatedSha(template, Integer.MAX_VALUE),
+                config.lastModified(),
+                config.length(),
+                writeBatch
+        );
+    }
+
+    private static void writeConfigHash(
+            final File jobDir,
+            final String hash,
+            final long modified,
+            final long length,
+            final Utils.WriteBatch writeBatch
+    ) throws IOException {
+        Utils.writeToFile(
+                new File(jobDir, JENKINS_JOB_CONFIG_HASH_FILE),
+                hash + " " + modified + " " + length + "\n",
+                writeBatch
+        );
+    }
+
     private void createManuallyUploadedJob(final String jobName) throws Exception {
         JenkinsCliWrapper.getCli().createManuallyUploadedJob(jenkinsJobsRoot, jobName).throwIfNecessary();
         ;
@@ -504,6 +633,23 @@ public class JenkinsJobUpdater implements JobUpdater {
         ;
     }
 
+    private static class PendingResults {
+
+        private final List<Future<JobUpdateResult>> jobsCreated = new ArrayList<>();
+        private final List<Future<JobUpdateResult>> jobsArchived = new ArrayList<>();
+        private final List<Future<JobUpdateResult>> jobsRewritten = new ArrayList<>();
+        private final List<Future<JobUpdateResult>> jobsRevived = new ArrayList<>();
+
+        JobUpdateResults get() {
+            return new JobUpdateResults(
+                    collect(jobsCreated),
+                    collect(jobsArchived),
+                    collect(jobsRewritten),
+                    collect(jobsRevived)
+            );
+        }
+    }
+
     interface JobUpdateFunction<T> {
 
         JobUpdateResult apply(T t) throws Exception;
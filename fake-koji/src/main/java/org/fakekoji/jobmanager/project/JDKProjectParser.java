@@ -57,7 +57,7 @@ public class JDKProjectParser implements Parser<Project, Set<Job>> {
 
     @Override
     public Set<Job> parse(Project project) throws ManagementException, StorageException {
-        final ConfigCache configCache = new ConfigCache(configManager);
+        final ConfigCache configCache = configManager.getConfigCache();
         jobBuilder = new JobBuilder(configCache, project.getType());
         final Optional<JDKVersion> jdkVersionOptional = configCache.getJdkVersion(project.getProduct().getJdk());
         if (!jdkVersionOptional.isPresent()) {
@@ -0,0 +1,169 @@
+package org.fakekoji.storage;
+
+import org.fakekoji.xmlrpc.server.JavaServerConstants;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps parsed objects of a {@link DirectoryJsonStorage} in memory. Files are
+ * checked by their time stamp and size before they are served, so edits done
+ * outside of fake-koji are still picked up, but only changed files are parsed again.
+ * Adding or removing a file changes time stamp of the directory, so
+ * {@link #contains(String)} is answered from memory unless the directory changed.
+ */
+public class CachingStorage<T> implements Storage<T> {
+
+    private static final Logger LOGGER = Logger.getLogger(JavaServerConstants.FAKE_KOJI_LOGGER);
+
+    private static final String SUFFIX = ".json";
+
+    private final DirectoryJsonStorage<T> storage;
+    private final File storageFile;
+    private final Class<T> valueType;
+    private final Map<String, Entry<T>> entries = new HashMap<>();
+    private long dirModified = Long.MIN_VALUE;
+    // bumped whenever cached content changes
+    private long revision;
+
+    public CachingStorage(final File storageFile, final Class<T> valueType) {
+        this.storage = new DirectoryJsonStorage<>(storageFile);
+        this.storageFile = storageFile;
+        this.valueType = valueType;
+        try {
+            refresh();
+        } catch (StorageException e) {
+            // not fatal here, the broken file is reported again by the first read
+            LOGGER.log(Level.WARNING, "Failed to load " + storageFile.getAbsolutePath(), e);
+        }
+    }
+
+    @Override
+    public synchronized void store(String id, T t) throws StorageException {
+        try {
+            storage.store(id, t);
+        } finally {
+            entries.remove(id);
+            revision++;
+        }
+        final File file = getFile(id);
+        entries.put(id, new Entry<>(t, file.lastModified(), file.length()));
+    }
+
+    @Override
+    public synchronized void delete(String id) throws StorageException {
+        try {
+            storage.delete(id);
+        } finally {
+            entries.remove(id);
+            revision++;
+        }
+    }
+
+    @Override
+    public synchronized T load(String id, Class<T> valueType) throws StorageException {
+        if (storageFile.lastModified() != dirModified) {
+            refresh();
+        } else {
+            refresh(id, getFile(id));
+        }
+        final Entry<T> entry = entries.get(id);
+        if (entry == null) {
+            throw new StorageException("Failed to load " + id + SUFFIX);
+        }
+        return entry.value;
+    }
+
+    @Override
+    public synchronized List<T> loadAll(Class<T> valueType) throws StorageException {
+        refresh();
+        final List<T> list = new ArrayList<>(entries.size());
+        for (final Entry<T> entry : entries.values()) {
+            list.add(entry.value);
+        }
+        return list;
+    }
+
+    @Override
+    public synchronized boolean contains(String id) {
+        if (storageFile.lastModified() != dirModified) {
+            try {
+                refresh();
+            } catch (StorageException e) {
+                LOGGER.log(Level.WARNING, "Failed to load " + storageFile.getAbsolutePath(), e);
+                return getFile(id).isFile();
+            }
+        }
+        return entries.containsKey(id);
+    }
+
+    /**
+     * @return number which changes whenever content of the storage changes, either
+     * by this storage or by someone else
+     */
+    public synchronized long getRevision() throws StorageException {
+        refresh();
+        return revision;
+    }
+
+    private void refresh() throws StorageException {
+        // taken before listing, so a change during the listing is caught next time
+        final long modified = storageFile.lastModified();
+        final File[] files = storageFile.listFiles();
+        final Set<String> ids = new HashSet<>();
+        if (files != null) {
+            for (final File file : files) {
+                if (file.getName().endsWith(SUFFIX)) {
+                    final String id = file.getName().substring(0, file.getName().length() - SUFFIX.length());
+                    ids.add(id);
+                    refresh(id, file);
+                }
+            }
+        }
+        if (entries.keySet().retainAll(ids)) {
+            revision++;
+        }
+        dirModified = modified;
+    }
+
+    private void refresh(final String id, final File file) throws StorageException {
+        final long modified = file.lastModified();
+        final long length = file.length();
+        final Entry<T> entry = entries.get(id);
+        if (entry != null && entry.modified == modified && entry.length == length) {
+            return;
+        }
+        if (modified == 0) {
+            // removed meanwhile
+            if (entries.remove(id) != null) {
+                revision++;
+            }
+            return;
+        }
+        entries.put(id, new Entry<>(storage.load(id, valueType), modified, length));
+        revision++;
+    }
+
+    private File getFile(final String id) {
+        return new File(storageFile, id + SUFFIX);
+    }
+
+    private static class Entry<T> {
+        private final T value;
+        private final long modified;
+        private final long length;
+
+        Entry(final T value, final long modified, final long length) {
+            this.value = value;
+            this.modified = modified;
+            this.length = length;
+        }
+    }
+}
@@ -25,7 +25,14 @@ package hudson.plugins.scm.koji.client.tools;
 
 import java.io.IOException;
 import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.xmlrpc.XmlRpcException;
 import org.apache.xmlrpc.XmlRpcHandler;
@@ -44,6 +51,8 @@ public class XmlRpcHelperTest {
         private final int port;
         private final WebServer webServer;
         private final int delay;
+        private final AtomicInteger running = new AtomicInteger();
+        private final AtomicInteger peak = new AtomicInteger();
 
         public TimeoutingXmlRpcServer(int port, int holdOn) {
             this.port = port;
@@ -70,6 +79,13 @@ public class XmlRpcHelperTest {
             return port;
         }
 
+        /**
+         * @return highest number of requests handled at the same time
+         */
+        public int getPeak() {
+            return peak.get();
+        }
+
         public void start() throws IOException {
             XmlRpcServerConfigImpl config = new XmlRpcServerConfigImpl();
             config.setEnabledForExtensions(true);
@@ -77,7 +93,12 @@ public class XmlRpcHelperTest {
             XmlRpcHandlerMapping xxx = (String string) -> new XmlRpcHandler() {
                 @Override
                 public Object execute(XmlRpcRequest xrr) throws XmlRpcException {
-                    pretendLoad();
+                    peak.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    try {
+                        pretendLoad();
+                    } finally {
+                        running.decrementAndGet();
+                    }
                     if (xrr.getMethodName().equals(SummXmlRpcParam.SUMM_METHOD)) {
                         //testing method
                         return sum(xrr.getParameter(0), xrr.getParameter(1));
@@ -204,5 +225,85 @@ public class XmlRpcHelperTest {
         Assert.assertNotNull(thrown);
     }
 
+    @Test
+    public void clientIsReusedPerUrl() throws IOException {
+        int port;
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            port = serverSocket.getLocalPort();
+        }
+        final String url = "http://localhost:" + port + "/RPC2/";
+        XmlRpcHelper.XmlRpcExecutioner a = new XmlRpcHelper.XmlRpcExecutioner(url);
+        XmlRpcHelper.XmlRpcExecutioner b = new XmlRpcHelper.XmlRpcExecutioner(url);
+        Assert.assertSame(a.getClient(), b.getClient());
+        b.setTimeout(1234);
+        Assert.assertNotSame(a.getClient(), b.getClient());
+    }
+
+    @Test
+    public void concurrentCallsShareConnections() throws Exception {
+        int port;
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            port = serverSocket.getLocalPort();
+        }
+        TimeoutingXmlRpcServer w = new TimeoutingXmlRpcServer(port, 10);
+        XmlRpcHelper.XmlRpcExecutioner a = new XmlRpcHelper.XmlRpcExecutioner("http://localhost:" + port + "/RPC2/");
+        w.start();
+        final ExecutorService executor = Executors.newFixedThreadPool(20);
+        try {
+            final List<Future<Object>> results = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                final int x = i;
+                results.add(executor.submit(() -> a.execute(new SummXmlRpcParam(x, 1))));
+            }
+            for (int i = 0; i < results.size(); i++) {
+                Assert.assertEquals(i + 1, results.get(i).get());
+            }
+        } finally {
+            executor.shutdownNow();
+            w.stop();
+        }
+        Assert.assertTrue("peak " + w.getPeak(), w.getPeak() > 0);
+        Assert.assertTrue("peak " + w.getPeak(), w.getPeak() <= 5);
+    }
+
+    @Test
+    public void waitingForConnectionTimeouts() throws Exception {
+        int port;
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            port = serverSocket.getLocalPort();
+        }
+        TimeoutingXmlRpcServer w = new TimeoutingXmlRpcServer(port, 1000);
+        XmlRpcHelper.XmlRpcExecutioner a = new XmlRpcHelper.XmlRpcExecutioner("http://localhost:" + port + "/RPC2/");
+        a.setTimeout(1500);
+        System.setProperty(XmlRpcHelper.MAX_CONNECTIONS_PROPERTY, "1");
+        w.start();
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        int timeouted = 0;
+        try {
+            a.getClient();
+            final List<Future<Object>> results = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                results.add(executor.submit(() -> a.execute(new SummXmlRpcParam(1, 1))));
+            }
+            for (Future<Object> result : results) {
+                try {
+                    Assert.assertEquals(2, result.get());
+                } catch (ExecutionException ex) {
+                    Throwable cause = ex;
+                    while (cause.getCause() != null) {
+                        cause = cause.getCause();
+                    }
+                    Assert.assertTrue(cause.getMessage(), cause.getMessage().startsWith("No connection available"));
+                    timeouted++;
+                }
+            }
+        } finally {
+            System.clearProperty(XmlRpcHelper.MAX_CONNECTIONS_PROPERTY);
+            executor.shutdownNow();
+            w.stop();
+        }
+        Assert.assertTrue("timeouted " + timeouted, timeouted > 0);
+        Assert.assertEquals(1, w.getPeak());
+    }
 
 }
@@ -0,0 +1,46 @@
+package org.fakekoji;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+
+public class UtilsTest {
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void fileIsReplacedWithoutLeftovers() throws IOException {
+        final File dir = temporaryFolder.newFolder("job");
+        final File config = new File(dir, "config.xml");
+        Utils.writeToFile(config, "<old/>");
+        Files.setPosixFilePermissions(config.toPath(), PosixFilePermissions.fromString("rw-r-----"));
+        Utils.writeToFile(config, "<new/>");
+        Assert.assertEquals("<new/>", read(config));
+        Assert.assertEquals("rw-r-----", PosixFilePermissions.toString(Files.getPosixFilePermissions(config.toPath())));
+        Assert.assertArrayEquals(new String[]{"config.xml"}, dir.list());
+    }
+
+    @Test
+    public void filesWrittenInBatchAreInPlace() throws IOException {
+        final File dir = temporaryFolder.newFolder("jobs");
+        try (Utils.WriteBatch batch = Utils.startWriteBatch()) {
+            Utils.writeToFile(new File(dir, "a.xml"), "a", batch);
+            Utils.writeToFile(new File(dir, "b.xml"), "b", batch);
+            Assert.assertEquals("a", read(new File(dir, "a.xml")));
+            Assert.assertEquals("b", read(new File(dir, "b.xml")));
+        }
+        Assert.assertEquals(2, dir.list().length);
+    }
+}
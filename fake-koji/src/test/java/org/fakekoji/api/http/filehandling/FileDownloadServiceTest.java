@@ -0,0 +1,242 @@
+package org.fakekoji.api.http.filehandling;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+public class FileDownloadServiceTest {
+
+    private static final String CONTENT = "0123456789abcdefghij";
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private FileDownloadService service;
+    private File root;
+    private String rootUrl;
+    private String fileUrl;
+
+    @Before
+    public void setup() throws IOException {
+        root = temporaryFolder.newFolder("builds");
+        final File file = new File(root, "java-1.8.0-openjdk/1.8.0.222.b10/0.el7/x86_64/file.tarxz");
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), CONTENT.getBytes(StandardCharsets.UTF_8));
+        final int port = freePort();
+        service = new FileDownloadService(root, port);
+        service.start();
+        rootUrl = "http://localhost:" + port + "/";
+        fileUrl = rootUrl + "java-1.8.0-openjdk/1.8.0.222.b10/0.el7/x86_64/file.tarxz";
+    }
+
+    @After
+    public void tearDown() {
+        service.stop(0);
+    }
+
+    private int freePort() throws IOException {
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            return serverSocket.getLocalPort();
+        }
+    }
+
+    /**
+     * @return connection whose worker is blocked, as the client does not read the body
+     */
+    private HttpURLConnection startBlockingDownload(String url) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(new File(root, "huge.tarxz"), "rw")) {
+            file.setLength(256L * 1024 * 1024);
+        }
+        final HttpURLConnection connection = get(url + "huge.tarxz");
+        Assert.assertEquals(200, connection.getResponseCode());
+        return connection;
+    }
+
+    @Test
+    public void requestIsRejectedWhenWorkersAreBusy() throws IOException {
+        service.stop(0);
+        final int port = freePort();
+        service = new FileDownloadService(root, port, 1, 0, 10);
+        service.start();
+        final String url = "http://localhost:" + port + "/";
+        final HttpURLConnection blocking = startBlockingDownload(url);
+        final HttpURLConnection rejected = get(url + "java-1.8.0-openjdk/");
+        Assert.assertEquals(503, rejected.getResponseCode());
+        Assert.assertNotNull(rejected.getHeaderField("Retry-After"));
+        blocking.disconnect();
+    }
+
+    @Test
+    public void requestIsRejectedWhenClientHasTooManyRequests() throws IOException {
+        service.stop(0);
+        final int port = freePort();
+        service = new FileDownloadService(root, port, 10, 10, 1);
+        service.start();
+        final String url = "http://localhost:" + port + "/";
+        final HttpURLConnection blocking = startBlockingDownload(url);
+        Assert.assertEquals(503, get(url + "java-1.8.0-openjdk/").getResponseCode());
+        blocking.disconnect();
+    }
+
+    private HttpURLConnection get(String url) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        // idle keep alive connections would hold the server stop
+        connection.setRequestProperty("Connection", "close");
+        return connection;
+    }
+
+    private static String body(HttpURLConnection connection) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = connection.getInputStream()) {
+            final byte[] buf = new byte[0x1000];
+            int read;
+            while ((read = in.read(buf)) != -1) {
+                out.write(buf, 0, read);
+            }
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void wholeFileIsSentWithValidators() throws IOException {
+        final HttpURLConnection connection = get(fileUrl);
+        Assert.assertEquals(200, connection.getResponseCode());
+        Assert.assertEquals("bytes", connection.getHeaderField("Accept-Ranges"));
+        Assert.assertNotNull(connection.getHeaderField("ETag"));
+        Assert.assertNotNull(connection.getHeaderField("Last-Modified"));
+        Assert.assertEquals("application/x-xz", connection.getHeaderField("Content-Type"));
+        Assert.assertEquals(CONTENT, body(connection));
+    }
+
+    @Test
+    public void bigFileIsSentInChunks() throws IOException {
+        final StringBuilder content = new StringBuilder();
+        for (int i = 0; content.length() < 1024 * 1024; i++) {
+            content.append(i).append('\n');
+        }
+        Files.write(new File(root, "big.rpm").toPath(), content.toString().getBytes(StandardCharsets.UTF_8));
+        HttpURLConnection connection = get(rootUrl + "big.rpm");
+        Assert.assertEquals(200, connection.getResponseCode());
+        Assert.assertEquals("application/x-rpm", connection.getHeaderField("Content-Type"));
+        Assert.assertEquals(content.toString(), body(connection));
+
+        connection = get(rootUrl + "big.rpm");
+        connection.setRequestProperty("Range", "bytes=300000-");
+        Assert.assertEquals(206, connection.getResponseCode());
+        Assert.assertEquals(content.substring(300000), body(connection));
+    }
+
+    @Test
+    public void rangeIsSent() throws IOException {
+        HttpURLConnection connection = get(fileUrl);
+        connection.setRequestMethod("HEAD");
+        final String etag = connection.getHeaderField("ETag");
+        connection = get(fileUrl);
+        connection.setRequestProperty("Range", "bytes=10-");
+        connection.setRequestProperty("If-Range", etag);
+        Assert.assertEquals(206, connection.getResponseCode());
+        Assert.assertEquals("bytes 10-19/20", connection.getHeaderField("Content-Range"));
+        Assert.assertEquals(CONTENT.substring(10), body(connection));
+
+        connection = get(fileUrl);
+        connection.setRequestProperty("Range", "bytes=2-4");
+        Assert.assertEquals(206, connection.getResponseCode());
+        Assert.assertEquals(CONTENT.substring(2, 5), body(connection));
+
+        connection = get(fileUrl);
+        connection.setRequestProperty("Range", "bytes=-3");
+        Assert.assertEquals(206, connection.getResponseCode());
+        Assert.assertEquals(CONTENT.substring(17), body(connection));
+    }
+
+    @Test
+    public void changedFileIsSentWhole() throws IOException {
+        final HttpURLConnection connection = get(fileUrl);
+        connection.setRequestProperty("Range", "bytes=10-");
+        connection.setRequestProperty("If-Range", "\"outdated\"");
+        Assert.assertEquals(200, connection.getResponseCode());
+        Assert.assertEquals(CONTENT, body(connection));
+    }
+
+    @Test
+    public void unsatisfiableRange() throws IOException {
+        final HttpURLConnection connection = get(fileUrl);
+        connection.setRequestProperty("Range", "bytes=20-");
+        Assert.assertEquals(416, connection.getResponseCode());
+        Assert.assertEquals("bytes */20", connection.getHeaderField("Content-Range"));
+    }
+
+    private int conditionalGet(String url, String etag) throws IOException {
+        final HttpURLConnection connection = get(url);
+        connection.setRequestProperty("If-None-Match", etag);
+        return connection.getResponseCode();
+    }
+
+    @Test
+    public void unchangedFileIsNotSent() throws IOException {
+        final HttpURLConnection connection = get(fileUrl);
+        Assert.assertEquals(200, connection.getResponseCode());
+        final String etag = connection.getHeaderField("ETag");
+        final String lastModified = connection.getHeaderField("Last-Modified");
+        body(connection);
+
+        Assert.assertEquals(304, conditionalGet(fileUrl, etag));
+        Assert.assertEquals(304, conditionalGet(fileUrl, "\"other\", W/" + etag));
+        Assert.assertEquals(200, conditionalGet(fileUrl, "\"other\""));
+        final HttpURLConnection byDate = get(fileUrl);
+        byDate.setRequestProperty("If-Modified-Since", lastModified);
+        Assert.assertEquals(304, byDate.getResponseCode());
+    }
+
+    @Test
+    public void unchangedListingsAreNotSent() throws IOException {
+        final String dirUrl = rootUrl + "java-1.8.0-openjdk/1.8.0.222.b10/";
+        final String allUrl = dirUrl + "ALL";
+        final String dirETag = get(dirUrl).getHeaderField("ETag");
+        final String allETag = get(allUrl).getHeaderField("ETag");
+        Assert.assertNotNull(dirETag);
+        Assert.assertNotNull(allETag);
+        Assert.assertEquals(304, conditionalGet(dirUrl, dirETag));
+        Assert.assertEquals(304, conditionalGet(allUrl, allETag));
+
+        // deep change shows in ALL, new entry in the listing
+        Files.write(new File(root, "java-1.8.0-openjdk/1.8.0.222.b10/0.el7/x86_64/other.tarxz").toPath(), new byte[]{1});
+        Assert.assertEquals(200, conditionalGet(allUrl, allETag));
+        new File(root, "java-1.8.0-openjdk/1.8.0.222.b10/1.el7").mkdir();
+        Assert.assertEquals(200, conditionalGet(dirUrl, dirETag));
+    }
+
+    @Test
+    public void headOfListingsHasNoBody() throws IOException {
+        final String dirUrl = rootUrl + "java-1.8.0-openjdk/1.8.0.222.b10/";
+        for (final String url : new String[]{dirUrl, dirUrl + "ALL"}) {
+            final HttpURLConnection head = get(url);
+            head.setRequestMethod("HEAD");
+            Assert.assertEquals(200, head.getResponseCode());
+            Assert.assertEquals("text/html", head.getHeaderField("Content-Type"));
+            Assert.assertEquals("", body(head));
+            final HttpURLConnection connection = get(url);
+            Assert.assertEquals(200, connection.getResponseCode());
+            Assert.assertEquals(Long.parseLong(head.getHeaderField("Content-Length")), body(connection).length());
+        }
+    }
+
+    @Test
+    public void missingFile() throws IOException {
+        Assert.assertEquals(404, get(fileUrl + ".missing").getResponseCode());
+    }
+}
@@ -0,0 +1,109 @@
+package org.fakekoji.api.xmlrpc;
+
+import hudson.plugins.scm.koji.Constants;
+import hudson.plugins.scm.koji.client.tools.XmlRpcHelper;
+import org.fakekoji.DataGenerator;
+import org.fakekoji.core.AccessibleSettings;
+import org.fakekoji.xmlrpc.server.JavaServerConstants;
+import org.fakekoji.xmlrpc.server.xmlrpcrequestparams.GetPackageId;
+import org.fakekoji.xmlrpc.server.xmlrpcrequestparams.ListBuilds;
+import org.fakekoji.xmlrpc.server.xmlrpcrequestparams.ListTags;
+import org.fakekoji.xmlrpc.server.xmlrpcrequestparams.MultiCall;
+import org.fakekoji.xmlrpc.server.xmlrpcrequestparams.XmlRpcRequestParams;
+import org.fakekoji.xmlrpc.server.xmlrpcresponse.PackageId;
+import org.fakekoji.xmlrpc.server.xmlrpcresponse.TagSet;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.fakekoji.DataGenerator.JDK_8_PACKAGE_NAME;
+
+public class XmlRpcKojiServiceTest {
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private XmlRpcKojiService service;
+    private XmlRpcHelper.XmlRpcExecutioner executioner;
+
+    @Before
+    public void setup() throws IOException {
+        final DataGenerator.FolderHolder folderHolder = DataGenerator.initFolders(temporaryFolder);
+        DataGenerator.initBuildsRoot(folderHolder.buildsRoot);
+        int port;
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            port = serverSocket.getLocalPort();
+        }
+        final AccessibleSettings settings = new AccessibleSettings(
+                folderHolder.buildsRoot,
+                folderHolder.reposRoot,
+                folderHolder.configsRoot,
+                folderHolder.jenkinsJobsRoot,
+                folderHolder.jenkinsJobArchiveRoot,
+                folderHolder.scriptsRoot,
+                new URL(DataGenerator.JENKINS_URL),
+                port,
+                JavaServerConstants.DFAULT_DWNLD_PORT,
+                JavaServerConstants.DFAULT_SCP_PORT,
+                JavaServerConstants.DFAULT_WEBAP_PORT,
+                Collections.emptyList(),
+                Collections.emptyList()
+        );
+        service = new XmlRpcKojiService(settings);
+        service.start();
+        executioner = new XmlRpcHelper.XmlRpcExecutioner("http://localhost:" + port + "/RPC2/");
+    }
+
+    @After
+    public void tearDown() {
+        service.stop();
+    }
+
+    @Test
+    public void multicallAnswersLikeSingleCalls() {
+        final Integer packageId = PackageId.create(executioner.execute(new GetPackageId(JDK_8_PACKAGE_NAME))).getValue();
+        Assert.assertNotNull(packageId);
+        final List<XmlRpcRequestParams> calls = Arrays.asList(
+                new GetPackageId(JDK_8_PACKAGE_NAME),
+                new ListBuilds(packageId),
+                new ListTags(packageId)
+        );
+        final List<Object> results = executioner.executeAll(calls);
+        Assert.assertEquals(calls.size(), results.size());
+        Assert.assertEquals(packageId, PackageId.create(results.get(0)).getValue());
+        Assert.assertArrayEquals(
+                (Object[]) executioner.execute(calls.get(1)),
+                (Object[]) results.get(1)
+        );
+        Assert.assertEquals(
+                TagSet.create(executioner.execute(calls.get(2))).getValue(),
+                TagSet.create(results.get(2)).getValue()
+        );
+    }
+
+    @Test
+    public void multicallReportsFailedCall() {
+        final List<XmlRpcRequestParams> calls = Arrays.asList(
+                new GetPackageId(JDK_8_PACKAGE_NAME),
+                new MultiCall.RawCall(Constants.listTags, new Object[]{"not a struct"})
+        );
+        final Object raw = executioner.execute(new MultiCall(calls));
+        Assert.assertEquals(2, ((Object[]) raw).length);
+        try {
+            MultiCall.unwrap(raw);
+            Assert.fail("Failed call in multicall was not reported");
+        } catch (RuntimeException ex) {
+            Assert.assertTrue(ex.getMessage(), ex.getMessage().contains(Constants.multicall));
+        }
+    }
+}
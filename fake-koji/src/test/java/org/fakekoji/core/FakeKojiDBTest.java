@@ -9,10 +9,13 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.Collections;
 import java.util.List;
 import java.util.function.Predicate;
 
+import static org.fakekoji.DataGenerator.JDK_8_PACKAGE_NAME;
 import static org.fakekoji.DataGenerator.PROJECT_NAME_U;
 
 public class FakeKojiDBTest {
@@ -21,10 +24,11 @@ public class FakeKojiDBTest {
     public final TemporaryFolder temporaryFolder = new TemporaryFolder();
 
     private FakeKojiDB db;
+    private DataGenerator.FolderHolder folderHolder;
 
     @Before
     public void setup() throws IOException {
-        final DataGenerator.FolderHolder folderHolder = DataGenerator.initFolders(temporaryFolder);
+        folderHolder = DataGenerator.initFolders(temporaryFolder);
         DataGenerator.initBuildsRoot(folderHolder.buildsRoot);
         db = new FakeKojiDB(DataGenerator.getSettings(folderHolder));
     }
@@ -149,6 +153,80 @@ public class FakeKojiDBTest {
         Assert.assertTrue(builds.stream().allMatch(containsArch("f29.x86_64")));
     }
 
+    @Test
+    public void projectBuildsAreNewestFirst() throws Exception {
+        final String[] releases = {"1.uName", "2.uName", "3.uName"};
+        final long[] finished = {2000, 3000, 1000};
+        for (int i = 0; i < releases.length; i++) {
+            final String rpm = JDK_8_PACKAGE_NAME + "-sortedVersion-" + releases[i] + ".x86_64.rpm";
+            FakeKojiTestUtil.generateBuilds(folderHolder.buildsRoot, JDK_8_PACKAGE_NAME, "sortedVersion", releases[i], "x86_64", rpm);
+            final File release = new File(folderHolder.buildsRoot, JDK_8_PACKAGE_NAME + "/sortedVersion/" + releases[i]);
+            Assert.assertTrue(new File(release, "x86_64/" + rpm).setLastModified(finished[i] * 1000000));
+        }
+        db.refresh();
+        final List<Build> builds = db.getProjectBuilds(db.getPkgId(JDK_8_PACKAGE_NAME));
+        Assert.assertEquals(3, builds.size());
+        Assert.assertEquals("2.uName", builds.get(0).getRelease());
+        Assert.assertEquals("1.uName", builds.get(1).getRelease());
+        Assert.assertEquals("3.uName", builds.get(2).getRelease());
+        Assert.assertEquals(builds.get(0).getTags(), db.getTags(builds.get(0).getId()));
+        Assert.assertNull(db.getPkgId("unknownPackage"));
+    }
+
+    @Test
+    public void newBuildIsVisibleAfterRefresh() throws Exception {
+        final Integer pkgId = db.getPkgId(JDK_8_PACKAGE_NAME);
+        final int before = db.getProjectBuilds(pkgId).size();
+        FakeKojiTestUtil.generateBuilds(
+                folderHolder.buildsRoot,
+                JDK_8_PACKAGE_NAME,
+                "newVersion",
+                "1.uName",
+                "x86_64",
+                JDK_8_PACKAGE_NAME + "-newVersion-1.uName.x86_64.rpm"
+        );
+        Assert.assertEquals(before, db.getProjectBuilds(pkgId).size());
+        db.refresh();
+        Assert.assertEquals(before + 1, db.getProjectBuilds(pkgId).size());
+    }
+
+    @Test
+    public void newBuildIsPickedUpByWatcher() throws Exception {
+        final Integer pkgId = db.getPkgId(JDK_8_PACKAGE_NAME);
+        final int before = db.getProjectBuilds(pkgId).size();
+        try (FakeKojiDBWatcher watcher = new FakeKojiDBWatcher(db, folderHolder.buildsRoot.toPath(), 100, 60 * 1000)) {
+            watcher.start();
+            FakeKojiTestUtil.generateBuilds(
+                    folderHolder.buildsRoot,
+                    JDK_8_PACKAGE_NAME,
+                    "watchedVersion",
+                    "1.uName",
+                    "x86_64",
+                    JDK_8_PACKAGE_NAME + "-watchedVersion-1.uName.x86_64.rpm"
+            );
+            final long deadline = System.currentTimeMillis() + 10 * 1000;
+            while (db.getProjectBuilds(pkgId).size() == before && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+        }
+        Assert.assertEquals(before + 1, db.getProjectBuilds(pkgId).size());
+    }
+
+    @Test
+    public void failedVerdictIsCachedUntilBuildChanges() throws Exception {
+        final String rpm = JDK_8_PACKAGE_NAME + "-failingVersion-1.uName.x86_64.rpm";
+        FakeKojiTestUtil.generateBuilds(folderHolder.buildsRoot, JDK_8_PACKAGE_NAME, "failingVersion", "1.uName", "x86_64", rpm);
+        db.refresh();
+        final Integer pkgId = db.getPkgId(JDK_8_PACKAGE_NAME);
+        final int before = db.getProjectBuilds(pkgId).size();
+        final File failed = new File(folderHolder.buildsRoot, JDK_8_PACKAGE_NAME + "/failingVersion/1.uName/x86_64/FAILED");
+        Assert.assertTrue(failed.createNewFile());
+        // marker in arch dir does not touch the build dir itself, only the watcher knows about it
+        Assert.assertEquals(before, db.getProjectBuilds(pkgId).size());
+        db.refresh(Collections.singleton(failed.toPath()));
+        Assert.assertEquals(before - 1, db.getProjectBuilds(pkgId).size());
+    }
+
     private Predicate<Build> containsArch(final String arch) {
         return build -> build.getRpms().stream().anyMatch(rpm -> rpm.getArch().equals(arch));
     }
@@ -0,0 +1,62 @@
+package org.fakekoji.jobmanager;
+
+import org.fakekoji.DataGenerator;
+import org.fakekoji.core.AccessibleSettings;
+import org.fakekoji.model.Platform;
+import org.fakekoji.storage.StorageException;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+public class ConfigManagerTest {
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private AccessibleSettings settings;
+    private ConfigManager configManager;
+
+    @Before
+    public void setup() throws IOException {
+        settings = DataGenerator.getSettings(temporaryFolder);
+        configManager = settings.getConfigManager();
+    }
+
+    @Test
+    public void configCacheIsShared() throws StorageException {
+        final ConfigCache configCache = configManager.getConfigCache();
+        Assert.assertFalse(configCache.getJdkProjects().isEmpty());
+        Assert.assertSame(configCache, configManager.getConfigCache());
+    }
+
+    @Test
+    public void writeThroughManagerReplacesConfigCache() throws StorageException, ManagementException {
+        final ConfigCache configCache = configManager.getConfigCache();
+        final Platform platform = DataGenerator.getRHEL7x64();
+        configManager.platformManager.update(platform.getId(), platform);
+        final ConfigCache updated = configManager.getConfigCache();
+        Assert.assertNotSame(configCache, updated);
+        Assert.assertEquals(configCache.getPlatforms().size(), updated.getPlatforms().size());
+        Assert.assertSame(updated, configManager.getConfigCache());
+    }
+
+    @Test
+    public void externalChangeReplacesConfigCache() throws StorageException, IOException {
+        final ConfigCache configCache = configManager.getConfigCache();
+        final File platforms = Paths.get(settings.getConfigRoot().getAbsolutePath(), ConfigManager.PLATFORMS).toFile();
+        final File platform = new File(platforms, DataGenerator.getRHEL7x64().getId() + ".json");
+        Files.delete(platform.toPath());
+        // coarse time stamps of some file systems
+        platforms.setLastModified(platforms.lastModified() + 2000);
+        final ConfigCache updated = configManager.getConfigCache();
+        Assert.assertNotSame(configCache, updated);
+        Assert.assertEquals(configCache.getPlatforms().size() - 1, updated.getPlatforms().size());
+    }
+}
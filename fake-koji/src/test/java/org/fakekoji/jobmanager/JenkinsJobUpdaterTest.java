@@ -26,11 +26,13 @@ package org.fakekoji.jobmanager;
 import org.fakekoji.DataGenerator;
 import org.fakekoji.Utils;
 import org.fakekoji.core.AccessibleSettings;
+import org.fakekoji.jobmanager.model.JDKProject;
 import org.fakekoji.jobmanager.model.Job;
 import org.fakekoji.jobmanager.model.JobBump;
 import org.fakekoji.jobmanager.model.JobCollisionAction;
 import org.fakekoji.jobmanager.model.JobUpdateResult;
 import org.fakekoji.jobmanager.model.JobUpdateResults;
+import org.fakekoji.jobmanager.model.Product;
 import org.fakekoji.storage.StorageException;
 import org.junit.Assert;
 import org.junit.Before;
@@ -40,6 +42,9 @@ import org.junit.rules.TemporaryFolder;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
 
 import static org.fakekoji.jobmanager.JenkinsJobUpdater.JENKINS_JOB_CONFIG_FILE;
 
@@ -185,6 +190,107 @@ public class JenkinsJobUpdaterTest {
         }
     }
 
+    @Test
+    public void regenerateAllKeepsOrderOfJobs() throws ManagementException, StorageException {
+        JenkinsCliWrapper.killCli();
+        try {
+            final List<String> expected = new ArrayList<>();
+            for (final JDKProject project : settings.getConfigManager().jdkProjectManager.readAll()) {
+                for (final Job job : settings.getJdkProjectParser().parse(project)) {
+                    expected.add(job.getName());
+                }
+            }
+            final JobUpdateResults results = jobUpdater.regenerateAll(null, settings.getConfigManager().jdkProjectManager, null);
+            Assert.assertEquals(
+                    expected,
+                    results.jobsCreated.stream().map(result -> result.jobName).collect(Collectors.toList())
+            );
+            for (final JobUpdateResult result : results.jobsCreated) {
+                Assert.assertTrue(result.success);
+                Assert.assertTrue(new File(new File(jobs, result.jobName), JENKINS_JOB_CONFIG_FILE).isFile());
+            }
+        } finally {
+            JenkinsCliWrapper.reinitCli();
+        }
+    }
+
+    @Test
+    public void regenerateAllSkipsUnchangedJobs() throws ManagementException, StorageException, IOException {
+        JenkinsCliWrapper.killCli();
+        try {
+            final JobUpdateResults created = jobUpdater.regenerateAll(null, settings.getConfigManager().jdkProjectManager, null);
+            final String changedJob = created.jobsCreated.get(0).jobName;
+            final File changedConfig = new File(new File(jobs, changedJob), JENKINS_JOB_CONFIG_FILE);
+            final String template = Utils.readFile(changedConfig);
+            Utils.writeToFile(changedConfig, "<changed/>");
+
+            final JobUpdateResults rewritten = jobUpdater.regenerateAll(null, settings.getConfigManager().jdkProjectManager, null);
+            Assert.assertEquals(created.jobsCreated.size(), rewritten.jobsRewritten.size());
+            for (final JobUpdateResult result : rewritten.jobsRewritten) {
+                Assert.assertTrue(result.success);
+                Assert.assertEquals(result.jobName.equals(changedJob) ? "" : "not changed", result.message);
+            }
+            Assert.assertEquals(template, Utils.readFile(changedConfig));
+        } finally {
+            JenkinsCliWrapper.reinitCli();
+        }
+    }
+
+    @Test
+    public void regenerateAllTouchesNothingWhenProjectIsBroken() throws StorageException {
+        final List<JDKProject> projects = new ArrayList<>(settings.getConfigManager().jdkProjectManager.readAll());
+        final JDKProject valid = projects.get(0);
+        projects.add(new JDKProject(
+                "broken",
+                new Product("unknown-jdk", "unknown-package"),
+                valid.getRepoState(),
+                valid.getUrl(),
+                valid.getBuildProviders(),
+                valid.getJobConfiguration(),
+                valid.getVariables()
+        ));
+        final Manager<JDKProject> brokenManager = new Manager<JDKProject>() {
+            @Override
+            public JDKProject create(JDKProject project) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public JDKProject read(String id) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public List<JDKProject> readAll() {
+                return projects;
+            }
+
+            @Override
+            public JDKProject update(String id, JDKProject project) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public JDKProject delete(String id) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public boolean contains(String id) {
+                return projects.stream().anyMatch(project -> project.getId().equals(id));
+            }
+        };
+        JenkinsCliWrapper.killCli();
+        try {
+            jobUpdater.regenerateAll(null, brokenManager, null);
+            Assert.fail("broken project was not reported");
+        } catch (ManagementException ex) {
+            Assert.assertArrayEquals(new String[0], jobs.list());
+        } finally {
+            JenkinsCliWrapper.reinitCli();
+        }
+    }
+
     @Test
     public void regenerateAllJDKProjectWithWhitelist() throws ManagementException, StorageException {
         JenkinsCliWrapper.killCli();
@@ -0,0 +1,88 @@
+package org.fakekoji.storage;
+
+import org.fakekoji.DataGenerator;
+import org.fakekoji.model.Platform;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.fakekoji.core.AccessibleSettings.objectMapper;
+
+public class CachingStorageTest {
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File dir;
+    private Platform rhel7;
+    private Platform f29;
+
+    @Before
+    public void setup() throws IOException {
+        dir = temporaryFolder.newFolder("platforms");
+        rhel7 = DataGenerator.getRHEL7x64();
+        f29 = DataGenerator.getF29x64();
+        write(rhel7.getId(), rhel7);
+    }
+
+    private void write(String id, Platform platform) throws IOException {
+        final File file = new File(dir, id + ".json");
+        Files.write(file.toPath(), objectMapper.writeValueAsString(platform).getBytes(StandardCharsets.UTF_8));
+        // coarse time stamps of some file systems
+        file.setLastModified(file.lastModified() + 2000);
+        dir.setLastModified(dir.lastModified() + 2000);
+    }
+
+    @Test
+    public void objectsAreServedFromMemory() throws StorageException {
+        final CachingStorage<Platform> storage = new CachingStorage<>(dir, Platform.class);
+        Assert.assertTrue(storage.contains(rhel7.getId()));
+        Assert.assertFalse(storage.contains(f29.getId()));
+        final Platform loaded = storage.load(rhel7.getId(), Platform.class);
+        Assert.assertEquals(rhel7, loaded);
+        Assert.assertSame(loaded, storage.load(rhel7.getId(), Platform.class));
+        Assert.assertSame(loaded, storage.loadAll(Platform.class).get(0));
+    }
+
+    @Test
+    public void writesAreVisible() throws StorageException {
+        final CachingStorage<Platform> storage = new CachingStorage<>(dir, Platform.class);
+        final long revision = storage.getRevision();
+        storage.store(f29.getId(), f29);
+        Assert.assertTrue(storage.contains(f29.getId()));
+        Assert.assertSame(f29, storage.load(f29.getId(), Platform.class));
+        Assert.assertEquals(2, storage.loadAll(Platform.class).size());
+        storage.delete(rhel7.getId());
+        Assert.assertFalse(storage.contains(rhel7.getId()));
+        Assert.assertEquals(1, storage.loadAll(Platform.class).size());
+        Assert.assertNotEquals(revision, storage.getRevision());
+    }
+
+    @Test
+    public void externalChangesAreVisible() throws StorageException, IOException {
+        final CachingStorage<Platform> storage = new CachingStorage<>(dir, Platform.class);
+        final long revision = storage.getRevision();
+        Assert.assertEquals(revision, storage.getRevision());
+
+        // edited in place
+        write(rhel7.getId(), f29);
+        Assert.assertEquals(f29, storage.load(rhel7.getId(), Platform.class));
+        Assert.assertNotEquals(revision, storage.getRevision());
+
+        write(f29.getId(), f29);
+        Assert.assertTrue(storage.contains(f29.getId()));
+        Assert.assertEquals(2, storage.loadAll(Platform.class).size());
+
+        Files.delete(new File(dir, rhel7.getId() + ".json").toPath());
+        dir.setLastModified(dir.lastModified() + 4000);
+        Assert.assertFalse(storage.contains(rhel7.getId()));
+        Assert.assertEquals(1, storage.loadAll(Platform.class).size());
+    }
+}
@@ -32,14 +32,23 @@ import hudson.plugins.scm.koji.model.BuildProvider;
 import org.fakekoji.xmlrpc.server.expensiveobjectscache.RemoteRequestCacheConfigKeys;
 import org.fakekoji.xmlrpc.server.expensiveobjectscache.RemoteRequestsCache;
 import org.fakekoji.xmlrpc.server.xmlrpcrequestparams.XmlRpcRequestParams;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
-import java.util.Collection;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 import java.util.StringTokenizer;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.function.Predicate;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
@@ -51,6 +60,21 @@ abstract class BuildMatcher {
 
     private static final OrderBy orderBy = OrderBy.DATE;
 
+    private static final Logger LOG = LoggerFactory.getLogger(BuildMatcher.class);
+
+    public static final String PROVIDER_TIMEOUT_PROPERTY = "hudson.plugins.scm.koji.providerTimeoutSeconds";
+    public static final String PROVIDER_THREADS_PROPERTY = "hudson.plugins.scm.koji.providerThreads";
+    private static final long PROVIDER_TIMEOUT_SECONDS = Long.getLong(PROVIDER_TIMEOUT_PROPERTY, 5 * 60);
+    // shared by all jobs, so polling of many jobs does not spawn unbounded number of threads
+    private static final ExecutorService providersExecutor = Executors.newFixedThreadPool(
+            Integer.getInteger(PROVIDER_THREADS_PROPERTY, 8),
+            runnable -> {
+                final Thread thread = new Thread(runnable, "koji-build-providers");
+                thread.setDaemon(true);
+                return thread;
+            }
+    );
+
     private final Iterable<KojiBuildProvider> buildProviders;
     private final Predicate<String> notProcessedNvrPredicate;
     private final int maxBuilds;
@@ -80,15 +104,62 @@ abstract class BuildMatcher {
      * you must filter after limit, otherwise strange builds will go in. The tests are covering this
      */
     public static Stream<Build> listBuilds(BuildMatcher bm) {
-        return StreamSupport.stream(bm.buildProviders.spliterator(), false)
-                .map(KojiBuildProvider::getBuildProvider)
-                .map(bm::getBuilds)
-                .flatMap(Collection::stream)
+        return bm.getBuildsOfAllProviders()
+                .stream()
                 .sorted(BuildMatcher::compare)
                 .limit(bm.maxBuilds)
                 .filter(build -> bm.notProcessedNvrPredicate.test(build.getNvr()));
     }
 
+    /**
+     * Providers are queried concurrently. Provider which fails or does not answer
+     * in {@link #PROVIDER_TIMEOUT_PROPERTY} seconds is skipped, so one dead
+     * mirror does not stall the whole poll. Only when all of them fail, the
+     * failure is propagated.
+     */
+    private List<Build> getBuildsOfAllProviders() {
+        final List<BuildProvider> providers = StreamSupport.stream(buildProviders.spliterator(), false)
+                .map(KojiBuildProvider::getBuildProvider)
+                .collect(Collectors.toList());
+        if (providers.size() == 1) {
+            return getBuilds(providers.get(0));
+        }
+        final List<Future<List<Build>>> futures = new ArrayList<>(providers.size());
+        for (final BuildProvider provider : providers) {
+            futures.add(providersExecutor.submit(() -> getBuilds(provider)));
+        }
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(PROVIDER_TIMEOUT_SECONDS);
+        final List<Build> builds = new ArrayList<>();
+        RuntimeException failure = null;
+        int failed = 0;
+        for (int i = 0; i < futures.size(); i++) {
+            final Future<List<Build>> future = futures.get(i);
+            final String url = providers.get(i).getTopUrl();
+            try {
+                builds.addAll(future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS));
+            } catch (TimeoutException ex) {
+                future.cancel(true);
+                failed++;
+                failure = new RuntimeException("Build provider " + url + " did not answer in " + PROVIDER_TIMEOUT_SECONDS + "s", ex);
+                LOG.warn("Build provider " + url + " did not answer in " + PROVIDER_TIMEOUT_SECONDS + "s, skipping it");
+            } catch (ExecutionException ex) {
+                failed++;
+                failure = ex.getCause() instanceof RuntimeException
+                        ? (RuntimeException) ex.getCause()
+                        : new RuntimeException(ex.getCause());
+                LOG.warn("Build provider " + url + " failed, skipping it", ex.getCause());
+            } catch (InterruptedException ex) {
+                futures.forEach(f -> f.cancel(true));
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while listing builds", ex);
+            }
+        }
+        if (failed > 0 && failed == providers.size()) {
+            throw failure;
+        }
+        return builds;
+    }
+
     /**
      * From previous javadoc, returns 3
      */
@@ -101,6 +172,10 @@ abstract class BuildMatcher {
         return getLatestOfNewestBuilds(this);
     }
 
+    int getMaxBuilds() {
+        return maxBuilds;
+    }
+
     abstract List<Build> getBuilds(BuildProvider buildProvider);
 
     abstract Build getBuild(Build build);
@@ -123,6 +198,10 @@ abstract class BuildMatcher {
             return cache.obtain(url, params);
     }
 
+    protected List<Object> executeAll(String url, List<? extends XmlRpcRequestParams> params) {
+            return cache.obtainAll(url, params);
+    }
+
     public static int compareBuildsByCompletionTime(Build b1, Build b2) {
         return compareKojiTime(b1.getCompletionTime(), b2.getCompletionTime(), Constants.DTF);
 
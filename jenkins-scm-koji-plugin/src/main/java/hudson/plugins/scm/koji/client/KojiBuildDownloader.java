@@ -14,6 +14,7 @@ import hudson.plugins.scm.koji.KojiSCM;
 import hudson.plugins.scm.koji.LoggerHelp;
 
 import java.io.BufferedOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -27,10 +28,20 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.Date;
@@ -46,6 +57,19 @@ public class KojiBuildDownloader implements FilePath.FileCallable<KojiBuildDownl
     private static final Logger LOG = LoggerFactory.getLogger(KojiSCM.class);
     private static final int MAX_REDIRECTIONS = 10;
     private static final int BUFFER_SIZE = 8192;
+    public static final String DOWNLOAD_THREADS_PROPERTY = "hudson.plugins.scm.koji.downloadThreads";
+    // 1 keeps the old sequential download
+    private static final int DOWNLOAD_THREADS = Integer.getInteger(DOWNLOAD_THREADS_PROPERTY, 1);
+    public static final String DOWNLOAD_RESUMES_PROPERTY = "hudson.plugins.scm.koji.downloadResumes";
+    private static final int MAX_RESUMES = Integer.getInteger(DOWNLOAD_RESUMES_PROPERTY, 5);
+    private static final int MAX_BUSY_RETRIES = 20;
+    private static final long DEFAULT_RETRY_AFTER_SECONDS = 5;
+    private static final long MAX_RETRY_AFTER_SECONDS = 60;
+    public static final String HASH_ALGORITHM_PROPERTY = "hudson.plugins.scm.koji.hashAlgorithm";
+    // MD5 or SHA-256
+    private static final String HASH_ALGORITHM = System.getProperty(HASH_ALGORITHM_PROPERTY, "MD5");
+    // resolved in the jvm of the node doing the download, null if not enabled
+    private static final ArtifactCache ARTIFACT_CACHE = ArtifactCache.fromProperties(HASH_ALGORITHM).orElse(null);
 
     private final Iterable<KojiBuildProvider> kojiBuildProviders;
     private final KojiXmlRpcApi kojiXmlRpcApi;
@@ -57,6 +81,8 @@ public class KojiBuildDownloader implements FilePath.FileCallable<KojiBuildDownl
     private final int maxPreviousBuilds;
     private final boolean cleanDownloadDir;
     private final boolean dirPerNvr;
+    // results of HEAD probes, so src url lookup does not ask for the same url twice
+    private final Map<String, Boolean> reachableUrls = new ConcurrentHashMap<>();
 
     public KojiBuildDownloader(
             Iterable<KojiBuildProvider> kojiBuildProviders,
@@ -159,9 +185,8 @@ public class KojiBuildDownloader implements FilePath.FileCallable<KojiBuildDownl
         }
         if (kojiXmlRpcApi instanceof FakeKojiXmlRpcApi) {
             final File target = targetDir;
-            List<String> rpmPaths = build.getRpms()
+            List<String> rpmPaths = downloadAll(build.getRpms(), rpm -> downloadArchive(target, rpm))
                     .stream()
-                    .map(rpm -> downloadArchive(target, rpm))
                     .filter(Optional::isPresent)
                     .map(optionalFile -> optionalFile.get().getAbsolutePath())
                     .collect(Collectors.toList());
@@ -172,26 +197,21 @@ public class KojiBuildDownloader implements FilePath.FileCallable<KojiBuildDownl
     }
 
     private Optional<File> downloadArchive(File targetDir, RPM rpm) {
-        if (!isUrlReachable(rpm.getUrl())) {
-            log("URL " + rpm.getUrl() + " not accessible");
-            return Optional.empty();
-        }
         File targetFile = new File(targetDir, rpm.getFilename(""));
         log("Starting downloading " + rpm.getUrl());
-        try (
-                final OutputStream out = new BufferedOutputStream(new FileOutputStream(targetFile));
-                final InputStream in = httpDownloadStream(rpm.getUrl())
-        ) {
-            byte[] buffer = new byte[BUFFER_SIZE];
-            int read;
-            while ((read = in.read(buffer)) != -1) {
-                out.write(buffer, 0, read);
+        try {
+            if (!fetchOrDownload(build.getNvr(), rpm, rpm.getFilename(""), rpm.getUrl(), targetFile)) {
+                log("URL " + rpm.getUrl() + " not accessible");
+                return Optional.empty();
             }
+        } catch (RuntimeException e) {
+            log("URL " + rpm.getUrl() + " not accessible", e);
+            return Optional.empty();
         } catch (IOException e) {
             log("Exception while downloading " + rpm.getFilename("") + ": ", e);
+            rpm.setHashSum(hashSum(targetFile));
         }
         log("Download successful");
-        rpm.setHashSum(hashSum(targetFile));
         return Optional.of(targetFile);
     }
 
@@ -236,11 +256,13 @@ public class KojiBuildDownloader implements FilePath.FileCallable<KojiBuildDownl
             };
         }
 
-        List<String> l = build.getRpms()
+        List<RPM> rpms = build.getRpms()
                 .stream()
                 .filter(nvrPredicate)
                 .filter(whitelistPredicate)
-                .map(r -> downloadRPM(targetDir, build, r))
+                .collect(Collectors.toList());
+        List<String> l = downloadAll(rpms, r -> downloadRPM(targetDir, build, r))
+                .stream()
                 .map(File::getAbsolutePath)
                 .collect(Collectors.toList());
         int rpmsInBuildXml = build.getRpms().size();
@@ -255,6 +277,44 @@ public class KojiBuildDownloader implements FilePath.FileCallable<KojiBuildDownl
         return l;
     }
 
+    /**
+     * Downloads given rpms by at most {@link #DOWNLOAD_THREADS} threads.
+     * Results are in order of the rpms, first failure is rethrown.
+     */
+    private <T> List<T> downloadAll(List<RPM> rpms, Function<RPM, T> download) {
+        final int threads = Math.min(DOWNLOAD_THREADS, rpms.size());
+        if (threads <= 1) {
+            return rpms.stream().map(download).collect(Collectors.toList());
+        }
+        log("Downloading " + rpms.size() + " files by " + threads + " threads");
+        final ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+            final Thread thread = new Thread(runnable, "koji-download");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            final List<Future<T>> futures = new ArrayList<>(rpms.size());
+            for (RPM rpm : rpms) {
+                futures.add(executor.submit(() -> download.apply(rpm)));
+            }
+            final List<T> results = new ArrayList<>(rpms.size());
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while downloading " + build.getNvr(), ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw new RuntimeException("Exception while downloading " + build.getNvr(), ex.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
     private File downloadRPM(File targetDir, Build build, RPM rpm) {
         try {
             for (String suffix : RPM.Suffix.INSTANCE.getSuffixes()) {
@@ -263,27 +323,25 @@ public class KojiBuildDownloader implements FilePath.FileCallable<KojiBuildDownl
                 log(new Date().toString());
                 if (build.isManual()) {
                     log("Manual tag provided - skipping download of ", urlString);
-                } else {
-                    log("Downloading: ", urlString);
+                    if (!isUrlReachable(urlString)) {
+                        log("Not accessible, trying another suffix in: ", rpm.getFilename(suffix));
+                        continue;
+                    }
+                    rpm.setUrl(urlString);
+                    File targetFile = new File(targetDir, rpm.getFilename(suffix));
+                    log("To: ", targetFile);
+                    rpm.setHashSum(hashSum(targetFile));
+                    return targetFile;
                 }
-                if (!isUrlReachable(urlString)) {
+                log("Downloading: ", urlString);
+                File targetFile = new File(targetDir, rpm.getFilename(suffix));
+                // no probing before the transfer, missing file is reported by the download itself
+                if (!fetchOrDownload(build.getNvr(), rpm, rpm.getFilename(suffix), urlString, targetFile)) {
                     log("Not accessible, trying another suffix in: ", rpm.getFilename(suffix));
                     continue;
                 }
                 rpm.setUrl(urlString);
-                File targetFile = new File(targetDir, rpm.getFilename(suffix));
                 log("To: ", targetFile);
-                if (!build.isManual()) {
-                    try (OutputStream out = new BufferedOutputStream(new FileOutputStream(targetFile));
-                         InputStream in = httpDownloadStream(urlString)) {
-                        byte[] buffer = new byte[BUFFER_SIZE];
-                        int read;
-                        while ((read = in.read(buffer)) != -1) {
-                            out.write(buffer, 0, read);
-                        }
-                    }
-                }
-                rpm.setHashSum(hashSum(targetFile));
                 return targetFile;
             }
         } catch (RuntimeException ex) {
@@ -294,36 +352,148 @@ public class KojiBuildDownloader implements FilePath.FileCallable<KojiBuildDownl
         return null;
     }
 
+    /**
+     * Takes the file from node's {@link ArtifactCache}, or downloads it there.
+     *
+     * @return false if there is no such file on the server
+     */
+    private boolean fetchOrDownload(String nvr, RPM rpm, String filename, String urlString, File targetFile) throws IOException {
+        if (ARTIFACT_CACHE == null) {
+            return download(rpm, urlString, targetFile);
+        }
+        synchronized (ARTIFACT_CACHE.lockFor(nvr, filename)) {
+            final Optional<String> cachedHash = ARTIFACT_CACHE.fetch(nvr, filename, targetFile);
+            if (cachedHash.isPresent()) {
+                log("Taken from node artifact cache: ", filename);
+                rpm.setHashSum(cachedHash.get());
+                return true;
+            }
+            if (!download(rpm, urlString, targetFile)) {
+                return false;
+            }
+            ARTIFACT_CACHE.store(nvr, filename, targetFile, rpm.getHashSum());
+            return true;
+        }
+    }
+
+    private boolean download(RPM rpm, String urlString, File targetFile) throws IOException {
+        final InputStream stream = httpDownloadStream(urlString);
+        if (stream == null) {
+            return false;
+        }
+        rpm.setHashSum(downloadToFile(stream, targetFile));
+        return true;
+    }
+
+    /**
+     * Writes the stream to the file, hashing the bytes on the way.
+     *
+     * @return hash of the file, or null if {@link #HASH_ALGORITHM} is unknown
+     */
+    private String downloadToFile(InputStream stream, File targetFile) throws IOException {
+        final MessageDigest hashAlgorithm = newHashAlgorithm(targetFile);
+        try (InputStream in = stream;
+             OutputStream file = new BufferedOutputStream(new FileOutputStream(targetFile))) {
+            final OutputStream out = hashAlgorithm == null ? file : new DigestOutputStream(file, hashAlgorithm);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        }
+        return hashAlgorithm == null ? null : toHex(hashAlgorithm);
+    }
+
     private String hashSum(File file) {
+        final MessageDigest hashAlgorithm = newHashAlgorithm(file);
+        if (hashAlgorithm == null) {
+            return null;
+        }
         byte[] buffer = new byte[BUFFER_SIZE];
-        MessageDigest hashAlgorithm;
-        try {
-            hashAlgorithm = MessageDigest.getInstance("Md5");
-            try (InputStream inputStream = new DigestInputStream(new FileInputStream(file), hashAlgorithm)) {
-                while (inputStream.read(buffer) > 0) {
-                    ;
-                }
+        try (InputStream inputStream = new DigestInputStream(new FileInputStream(file), hashAlgorithm)) {
+            while (inputStream.read(buffer) > 0) {
+                ;
             }
-        } catch (NoSuchAlgorithmException | IOException e) {
+        } catch (IOException e) {
+            log("Could not create hash sum of file: " + file.getName(), e);
+            return null;
+        }
+        return toHex(hashAlgorithm);
+    }
+
+    private MessageDigest newHashAlgorithm(File file) {
+        try {
+            return MessageDigest.getInstance(HASH_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
             log("Could not create hash sum of file: " + file.getName(), e);
             return null;
         }
+    }
+
+    private static String toHex(MessageDigest hashAlgorithm) {
         return DatatypeConverter.printHexBinary(hashAlgorithm.digest()).toLowerCase();
     }
 
+    /**
+     * @return stream with content of the url, or null if there is no such file
+     */
     private InputStream httpDownloadStream(String urlString) {
+        final HttpURLConnection httpConn = openConnection(urlString, 0, null);
+        if (httpConn == null) {
+            return null;
+        }
+        try {
+            return new ResumingInputStream(httpConn);
+        } catch (IOException ex) {
+            httpConn.disconnect();
+            log("Not accessible: " + urlString, ex);
+            return null;
+        }
+    }
+
+    /**
+     * Follows redirects. With offset, only the rest of the file is requested,
+     * if it still matches the validator (ETag or Last-Modified).
+     *
+     * @return connection answered by 200 or 206, or null if the file can not be
+     * downloaded from this url (missing, other error response, or connection failure),
+     * so the caller may try another one
+     */
+    private HttpURLConnection openConnection(String urlString, long offset, String validator) {
         HttpURLConnection httpConn = null;
         boolean keepConnection = false;
+        int busyRetries = 0;
         for (int i = 0; i < MAX_REDIRECTIONS; i++) {
             try {
                 URL url = new URL(urlString);
                 httpConn = (HttpURLConnection) url.openConnection();
                 httpConn.setRequestMethod("GET");
+                if (offset > 0) {
+                    httpConn.setRequestProperty("Range", "bytes=" + offset + "-");
+                    if (validator != null) {
+                        httpConn.setRequestProperty("If-Range", validator);
+                    }
+                }
                 int response = httpConn.getResponseCode();
                 switch (response) {
-                    case 200: {
+                    case 200:
+                    case 206: {
                         keepConnection = true;
-                        return httpConn.getInputStream();
+                        return httpConn;
+                    }
+                    case 404:
+                    case 410:
+                        return null;
+                    case 503: {
+                        // server is overloaded, wait as long as it asks and try again
+                        if (busyRetries++ >= MAX_BUSY_RETRIES) {
+                            throw new Exception("Server still busy after " + MAX_BUSY_RETRIES + " retries for URL: " + urlString);
+                        }
+                        final long delay = getRetryAfterSeconds(httpConn);
+                        log("Server busy, retrying " + urlString + " in " + delay + "s");
+                        Thread.sleep(TimeUnit.SECONDS.toMillis(delay));
+                        i--;
+                        break;
                     }
                     case 301:
                     case 302: {
@@ -338,19 +508,132 @@ public class KojiBuildDownloader implements FilePath.FileCallable<KojiBuildDownl
                         break;
                     }
                     default:
-                        throw new Exception("Unsupported HTTP response " + response + " for URL: " + urlString);
+                        log("Not accessible, HTTP response " + response + " for URL: " + urlString);
+                        return null;
                 }
-            } catch (RuntimeException ex) {
-                throw ex;
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while connecting to " + urlString, ex);
             } catch (Exception ex) {
-                throw new RuntimeException(ex);
+                log("Not accessible: " + urlString, ex);
+                return null;
             } finally {
                 if (!keepConnection && httpConn != null) {
                     httpConn.disconnect();
                 }
             }
         }
-        throw new RuntimeException("Too many redirects for URL: " + urlString);
+        log("Not accessible, too many redirects for URL: " + urlString);
+        return null;
+    }
+
+    private static long getRetryAfterSeconds(HttpURLConnection httpConn) {
+        try {
+            final long seconds = Long.parseLong(httpConn.getHeaderField("Retry-After").trim());
+            return Math.max(1, Math.min(seconds, MAX_RETRY_AFTER_SECONDS));
+        } catch (NullPointerException | NumberFormatException ex) {
+            return DEFAULT_RETRY_AFTER_SECONDS;
+        }
+    }
+
+    /**
+     * When connection breaks, asks the server for the rest of the file by
+     * Range request, instead of failing the whole download. Bytes already
+     * read are not requested again.
+     */
+    private class ResumingInputStream extends InputStream {
+
+        private final URL url;
+        private final String validator;
+        private HttpURLConnection connection;
+        private InputStream in;
+        private long offset;
+        // -1 if server did not say
+        private long expectedLength;
+        private int resumesLeft = MAX_RESUMES;
+
+        ResumingInputStream(HttpURLConnection connection) throws IOException {
+            this.connection = connection;
+            this.in = connection.getInputStream();
+            this.expectedLength = connection.getContentLengthLong();
+            // final url, after redirects
+            this.url = connection.getURL();
+            final String etag = connection.getHeaderField("ETag");
+            this.validator = etag != null ? etag : connection.getHeaderField("Last-Modified");
+            if (!"bytes".equals(connection.getHeaderField("Accept-Ranges")) || validator == null) {
+                resumesLeft = 0;
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            final byte[] b = new byte[1];
+            final int read = read(b, 0, 1);
+            return read == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            while (true) {
+                try {
+                    final int read = in.read(b, off, len);
+                    if (read > 0) {
+                        offset += read;
+                    } else if (read == -1 && expectedLength >= 0 && offset < expectedLength) {
+                        // HttpURLConnection reports connection closed too early as plain end of stream
+                        throw new EOFException("Got " + offset + " of " + expectedLength + " bytes of " + url);
+                    }
+                    return read;
+                } catch (IOException ex) {
+                    if (!resume(ex)) {
+                        throw ex;
+                    }
+                }
+            }
+        }
+
+        private boolean resume(IOException cause) {
+            if (resumesLeft <= 0) {
+                return false;
+            }
+            resumesLeft--;
+            closeConnection();
+            log("Download of " + url + " broken after " + offset + " bytes, resuming", cause);
+            try {
+                final HttpURLConnection resumed = openConnection(url.toString(), offset, validator);
+                if (resumed == null) {
+                    return false;
+                }
+                final String contentRange = resumed.getHeaderField("Content-Range");
+                if (resumed.getResponseCode() != 206 || contentRange == null || !contentRange.startsWith("bytes " + offset + "-")) {
+                    // file changed on server, or range ignored
+                    resumed.disconnect();
+                    return false;
+                }
+                connection = resumed;
+                in = resumed.getInputStream();
+                final long restLength = resumed.getContentLengthLong();
+                expectedLength = restLength < 0 ? -1 : offset + restLength;
+                return true;
+            } catch (RuntimeException | IOException ex) {
+                log("Resuming of " + url + " failed", ex);
+                return false;
+            }
+        }
+
+        private void closeConnection() {
+            try {
+                in.close();
+            } catch (IOException ex) {
+                // broken anyway
+            }
+            connection.disconnect();
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
     }
 
     private String composeUrl(String kojiDownloadUrl, Build build, RPM rpm, String suffix) {
@@ -448,19 +731,26 @@ public class KojiBuildDownloader implements FilePath.FileCallable<KojiBuildDownl
     }
 
     private boolean isUrlReachable(String urlString) {
+        final Boolean known = reachableUrls.get(urlString);
+        if (known != null) {
+            return known;
+        }
+        boolean reachable;
         try {
-            return isUrlReachableImpl(urlString, MAX_REDIRECTIONS);
+            reachable = isUrlReachableImpl(urlString, MAX_REDIRECTIONS);
         } catch (Exception e) {
             LOG.info(e.toString());
-            return false;
+            reachable = false;
         }
+        reachableUrls.put(urlString, reachable);
+        return reachable;
     }
 
     private boolean isUrlReachableImpl(String urlString, int redirectionsRemaining) throws MalformedURLException, IOException {
         URL u = new URL(urlString);
         HttpURLConnection huc = (HttpURLConnection) u.openConnection();
         try {
-            huc.setRequestMethod("GET");  //OR  huc.setRequestMethod ("HEAD");
+            huc.setRequestMethod("HEAD");
             huc.connect();
             int code = huc.getResponseCode();
             // http 301=Moved Permanently; 302=Found
@@ -468,12 +758,26 @@ public class KojiBuildDownloader implements FilePath.FileCallable<KojiBuildDownl
             if ((code == 301 || code == 302) && redirectionsRemaining > 0) {
                 return isUrlReachableImpl(huc.getHeaderField("Location"), redirectionsRemaining - 1);
             }
+            if (code == 405 || code == 501) {
+                // server without HEAD support, fall back to GET
+                return isUrlReachableByGet(u);
+            }
             return code == 200;
         } finally {
             huc.disconnect();
         }
     }
 
+    private boolean isUrlReachableByGet(URL u) throws IOException {
+        HttpURLConnection huc = (HttpURLConnection) u.openConnection();
+        try {
+            huc.setRequestMethod("GET");
+            return huc.getResponseCode() == 200;
+        } finally {
+            huc.disconnect();
+        }
+    }
+
     private static String addArch(RPM rpm) {
         //it may happen. that this will be necessary to be configurable in koji plugin
         //is container checkbox?
@@ -30,6 +30,8 @@ import java.util.function.Predicate;
 class KojiBuildMatcher extends BuildMatcher {
 
     private static final Logger LOG = LoggerFactory.getLogger(KojiBuildMatcher.class);
+    // upper bound of listTags calls in one multicall
+    private static final int MAX_TAGS_BATCH = 100;
 
     private final GlobPredicate tagPredicate;
     private final String pkgName;
@@ -47,28 +49,43 @@ class KojiBuildMatcher extends BuildMatcher {
         this.archs = composeArchList(kojiXmlRpcApi.getArch());
     }
 
+    /**
+     * Only newest builds can pass the limit in {@link BuildMatcher#listBuilds},
+     * so builds are sorted first and their tags are resolved in batches, newest
+     * first, until {@link #getMaxBuilds()} of them match the tag. Each batch is
+     * one multicall.
+     */
     @Override
     List<Build> getBuilds(BuildProvider buildProvider) {
         final List<Build> builds = new ArrayList<>();
-        for (final Build build : listPackageBuilds(buildProvider.getTopUrl(), pkgName)) {
-            final Set<String> tags = retrieveTags(buildProvider.getTopUrl(), build);
-            if (matchesTagPredicate(tags)) {
-                builds.add(
-                        new Build(
-                                build.getId(),
-                                build.getName(),
-                                build.getVersion(),
-                                build.getRelease(),
-                                build.getNvr(),
-                                build.getCompletionTime(),
-                                null,
-                                tags,
-                                buildProvider,
-                                null
-                        )
-                );
+        final List<Build> packageBuilds = new ArrayList<>(listPackageBuilds(buildProvider.getTopUrl(), pkgName));
+        packageBuilds.sort(BuildMatcher::compare);
+        final int batchSize = Math.min(Math.max(getMaxBuilds(), 1), MAX_TAGS_BATCH);
+        for (int from = 0; from < packageBuilds.size() && builds.size() < getMaxBuilds(); from += batchSize) {
+            final List<Build> batch = packageBuilds.subList(from, Math.min(from + batchSize, packageBuilds.size()));
+            final List<Set<String>> allTags = retrieveTags(buildProvider.getTopUrl(), batch);
+            for (int i = 0; i < batch.size() && builds.size() < getMaxBuilds(); i++) {
+                final Build build = batch.get(i);
+                final Set<String> tags = allTags.get(i);
+                if (matchesTagPredicate(tags)) {
+                    builds.add(
+                            new Build(
+                                    build.getId(),
+                                    build.getName(),
+                                    build.getVersion(),
+                                    build.getRelease(),
+                                    build.getNvr(),
+                                    build.getCompletionTime(),
+                                    null,
+                                    tags,
+                                    buildProvider,
+                                    null
+                            )
+                    );
+                }
             }
         }
+        LOG.debug("Matched " + builds.size() + " of " + packageBuilds.size() + " builds of " + pkgName + " at " + buildProvider.getTopUrl());
         return builds;
     }
 
@@ -111,10 +128,20 @@ class KojiBuildMatcher extends BuildMatcher {
         return builds;
     }
 
-    private Set<String> retrieveTags(String url, Build build) {
-        final XmlRpcRequestParams params = new ListTags(build.getId());
-        final TagSet response = TagSet.create(execute(url, params));
-        return response.getValue();
+    /**
+     * Tags of all the builds are fetched in one multicall, instead of one
+     * request per build.
+     */
+    private List<Set<String>> retrieveTags(String url, List<Build> builds) {
+        final List<ListTags> params = new ArrayList<>(builds.size());
+        for (final Build build : builds) {
+            params.add(new ListTags(build.getId()));
+        }
+        final List<Set<String>> tags = new ArrayList<>(builds.size());
+        for (final Object response : executeAll(url, params)) {
+            tags.add(TagSet.create(response).getValue());
+        }
+        return tags;
     }
 
     private boolean matchesTagPredicate(Set<String> tags) {
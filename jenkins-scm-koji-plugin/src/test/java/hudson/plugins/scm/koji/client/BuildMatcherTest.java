@@ -234,4 +234,48 @@ public class BuildMatcherTest {
         Optional<Build> b = BuildMatcher.getLatestOfNewestBuilds(bm);
         Assert.assertEquals("b-1-2", b.get().getNvr());
     }
+
+    @Test
+    public void failingProviderIsSkipped() throws IOException {
+        final List<KojiBuildProvider> providers = Arrays.asList(
+                new KojiBuildProvider("proc://dead", "proc://dead"),
+                new KojiBuildProvider("proc://alive", "proc://alive"));
+        BuildMatcher bm = new BuildMatcher(providers, NotProcessedNvrPredicate.createNotProcessedNvrPredicate(new ArrayList<>()), 3) {
+            @Override
+            List<Build> getBuilds(BuildProvider buildProvider) {
+                if (buildProvider.getTopUrl().contains("dead")) {
+                    throw new RuntimeException("mirror is down");
+                }
+                return Arrays.asList(createBuild(1, getDtfDate(10, 10)),
+                        createBuild(2, getDtfDate(9, 9)));
+            }
+
+            @Override
+            Build getBuild(Build build) {
+                return build;
+            }
+        };
+        List<Build> l = BuildMatcher.listBuilds(bm).collect(Collectors.toList());
+        Assert.assertEquals(2, l.size());
+        Assert.assertEquals("b-1-2", l.get(0).getNvr());
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void allProvidersFailing() throws IOException {
+        final List<KojiBuildProvider> providers = Arrays.asList(
+                new KojiBuildProvider("proc://dead1", "proc://dead1"),
+                new KojiBuildProvider("proc://dead2", "proc://dead2"));
+        BuildMatcher bm = new BuildMatcher(providers, NotProcessedNvrPredicate.createNotProcessedNvrPredicate(new ArrayList<>()), 3) {
+            @Override
+            List<Build> getBuilds(BuildProvider buildProvider) {
+                throw new RuntimeException("mirror is down");
+            }
+
+            @Override
+            Build getBuild(Build build) {
+                return build;
+            }
+        };
+        BuildMatcher.listBuilds(bm).collect(Collectors.toList());
+    }
 }
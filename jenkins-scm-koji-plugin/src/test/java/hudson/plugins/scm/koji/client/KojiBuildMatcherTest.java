@@ -0,0 +1,114 @@
+package hudson.plugins.scm.koji.client;
+
+import hudson.plugins.scm.koji.RealKojiXmlRpcApi;
+import hudson.plugins.scm.koji.model.Build;
+import org.fakekoji.xmlrpc.server.xmlrpcrequestparams.GetPackageId;
+import org.fakekoji.xmlrpc.server.xmlrpcrequestparams.ListBuilds;
+import org.fakekoji.xmlrpc.server.xmlrpcrequestparams.ListTags;
+import org.fakekoji.xmlrpc.server.xmlrpcrequestparams.XmlRpcRequestParams;
+import org.fakekoji.xmlrpc.server.xmlrpcresponse.BuildList;
+import org.fakekoji.xmlrpc.server.xmlrpcresponse.TagSet;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+public class KojiBuildMatcherTest {
+
+    /**
+     * Answers like fake-koji does, with the same response objects. Builds are
+     * numbered from 1, the oldest one. Even builds are tagged for fedora, odd
+     * ones for rhel.
+     */
+    private static class StubbedHubMatcher extends KojiBuildMatcher {
+
+        private final int buildCount;
+        private final List<Integer> tagBatches = new ArrayList<>();
+
+        StubbedHubMatcher(int buildCount, int maxBuilds, String tag) {
+            super(
+                    BuildMatcherTest.createKojiBuildProviders(),
+                    nvr -> true,
+                    maxBuilds,
+                    new RealKojiXmlRpcApi("b", "x64", tag, "", null)
+            );
+            this.buildCount = buildCount;
+        }
+
+        @Override
+        protected Object execute(String url, XmlRpcRequestParams params) {
+            if (params instanceof GetPackageId) {
+                return 1;
+            }
+            if (params instanceof ListBuilds) {
+                final List<Build> builds = new ArrayList<>(buildCount);
+                for (int i = 1; i <= buildCount; i++) {
+                    builds.add(BuildMatcherTest.createBuild(i, BuildMatcherTest.getDtfDate(i / 60, i % 60)));
+                }
+                return ((List<?>) new BuildList(builds).toObject()).toArray();
+            }
+            throw new IllegalArgumentException("Unexpected call " + params.getMethodName());
+        }
+
+        @Override
+        protected List<Object> executeAll(String url, List<? extends XmlRpcRequestParams> params) {
+            tagBatches.add(params.size());
+            final List<Object> answers = new ArrayList<>(params.size());
+            for (final XmlRpcRequestParams param : params) {
+                final int buildId = ((ListTags) param).getBuildId();
+                final String tag = buildId % 2 == 0 ? "f24-candidate" : "rhel-7.5-candidate";
+                answers.add(((List<?>) new TagSet(Collections.singleton(tag)).toObject()).toArray());
+            }
+            return answers;
+        }
+
+        List<Integer> matchedIds() {
+            return getBuilds(BuildMatcherTest.createBuildProvider())
+                    .stream()
+                    .map(Build::getId)
+                    .collect(Collectors.toList());
+        }
+    }
+
+    @Test
+    public void matchesAreCollectedOverMoreBatches() {
+        final StubbedHubMatcher matcher = new StubbedHubMatcher(10, 3, "f24-.*");
+        Assert.assertEquals(Arrays.asList(10, 8, 6), matcher.matchedIds());
+        // 10 9 8, then 7 6 5, the rest is not asked for
+        Assert.assertEquals(Arrays.asList(3, 3), matcher.tagBatches);
+    }
+
+    @Test
+    public void fewerMatchesThanMaxBuilds() {
+        final StubbedHubMatcher matcher = new StubbedHubMatcher(250, 200, "f24-.*");
+        final List<Integer> ids = matcher.matchedIds();
+        Assert.assertEquals(125, ids.size());
+        Assert.assertEquals(Integer.valueOf(250), ids.get(0));
+        Assert.assertEquals(Integer.valueOf(2), ids.get(124));
+        // batches are capped, so one multicall does not carry all the builds
+        Assert.assertEquals(Arrays.asList(100, 100, 50), matcher.tagBatches);
+    }
+
+    @Test
+    public void onlyBuildsWithMatchingTagAreReturned() {
+        final StubbedHubMatcher rhel = new StubbedHubMatcher(10, 2, "rhel-7.*");
+        Assert.assertEquals(Arrays.asList(9, 7), rhel.matchedIds());
+
+        final StubbedHubMatcher none = new StubbedHubMatcher(10, 3, "rhel-8.*");
+        Assert.assertEquals(Collections.emptyList(), none.matchedIds());
+        Assert.assertEquals(Arrays.asList(3, 3, 3, 1), none.tagBatches);
+    }
+
+    @Test
+    public void matchedBuildsCarryTheirTags() {
+        final StubbedHubMatcher matcher = new StubbedHubMatcher(4, 1, "f24-.*");
+        final List<Build> builds = matcher.getBuilds(BuildMatcherTest.createBuildProvider());
+        Assert.assertEquals(1, builds.size());
+        Assert.assertEquals(Collections.singleton("f24-candidate"), builds.get(0).getTags());
+        Assert.assertNotNull(builds.get(0).getProvider());
+    }
+}
@@ -34,6 +34,11 @@ abstract public class Constants {
 
     public static final String getBuildList = "getBuildList";
     public static final String getBuildDetail = "getBuildDetail";
+    public static final String multicall = "system.multicall";
+    public static final String methodName = "methodName";
+    public static final String params = "params";
+    public static final String faultCode = "faultCode";
+    public static final String faultString = "faultString";
 
     public static final DateTimeFormatter DTF = new DateTimeFormatterBuilder()
             .appendValue(ChronoField.YEAR, 4)
@@ -0,0 +1,223 @@
+package hudson.plugins.scm.koji.client;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Node local store of downloaded artifacts, shared by all jobs and workspaces
+ * on the node. Content is stored once per hash in objects/&lt;algorithm&gt;/&lt;hash&gt;,
+ * index/&lt;nvr&gt;/&lt;filename&gt; holds hash of the file. Files are copied into
+ * workspaces, so builds can not change the cached content, and the hash is checked
+ * while copying. Time stamps of empty files in used/&lt;algorithm&gt; tell when an
+ * object was last used; least recently used objects are removed when the store
+ * grows over its limit.
+ */
+public class ArtifactCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ArtifactCache.class);
+
+    public static final String DIR_PROPERTY = "hudson.plugins.scm.koji.artifactCache";
+    public static final String MAX_MB_PROPERTY = "hudson.plugins.scm.koji.artifactCacheMaxMB";
+
+    // all jobs of the node run in one jvm, so one download per artifact is enough
+    private static final Object[] locks = new Object[64];
+
+    static {
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    private final File objects;
+    private final File used;
+    private final File index;
+    private final String hashAlgorithm;
+    private final long maxBytes;
+
+    public ArtifactCache(File root, String hashAlgorithm, long maxBytes) {
+        this.objects = new File(new File(root, "objects"), hashAlgorithm.toLowerCase());
+        this.used = new File(new File(root, "used"), hashAlgorithm.toLowerCase());
+        this.index = new File(root, "index");
+        this.hashAlgorithm = hashAlgorithm;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return cache configured by system properties, or empty if it is not enabled
+     */
+    public static Optional<ArtifactCache> fromProperties(String hashAlgorithm) {
+        final String dir = System.getProperty(DIR_PROPERTY);
+        if (dir == null || dir.trim().isEmpty()) {
+            return Optional.empty();
+        }
+        final long maxMB = Long.getLong(MAX_MB_PROPERTY, 10 * 1024);
+        return Optional.of(new ArtifactCache(new File(dir.trim()), hashAlgorithm, maxMB * 1024 * 1024));
+    }
+
+    /**
+     * Callers should hold this lock while looking up and downloading the
+     * artifact, so concurrent jobs do not download it twice. Locks are shared
+     * by more artifacts, which only costs some waiting.
+     */
+    public Object lockFor(String nvr, String filename) {
+        return locks[Math.floorMod((nvr + '/' + filename).hashCode(), locks.length)];
+    }
+
+    /**
+     * Puts cached artifact to target.
+     *
+     * @return hash of the artifact, or empty if it is not cached
+     */
+    public Optional<String> fetch(String nvr, String filename, File target) {
+        final File indexFile = getIndexFile(nvr, filename);
+        if (!indexFile.isFile()) {
+            return Optional.empty();
+        }
+        try {
+            final String hash = new String(Files.readAllBytes(indexFile.toPath()), StandardCharsets.UTF_8).trim();
+            final File object = new File(objects, hash);
+            if (!object.isFile()) {
+                // evicted meanwhile
+                Files.deleteIfExists(indexFile.toPath());
+                return Optional.empty();
+            }
+            if (!hash.equalsIgnoreCase(copy(object, target))) {
+                LOG.warn("Cached " + nvr + "/" + filename + " does not match its hash " + hash + ", removing it");
+                Files.deleteIfExists(target.toPath());
+                remove(object);
+                Files.deleteIfExists(indexFile.toPath());
+                return Optional.empty();
+            }
+            markUsed(hash);
+            return Optional.of(hash);
+        } catch (IOException | NoSuchAlgorithmException ex) {
+            LOG.warn("Could not take " + nvr + "/" + filename + " from artifact cache", ex);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Adds downloaded artifact to the cache.
+     */
+    public void store(String nvr, String filename, File source, String hash) {
+        if (hash == null || hash.isEmpty()) {
+            return;
+        }
+        try {
+            Files.createDirectories(objects.toPath());
+            final File object = new File(objects, hash);
+            if (!object.isFile()) {
+                final File tmp = File.createTempFile(hash, ".tmp", objects);
+                Files.copy(source.toPath(), tmp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                if (!tmp.setWritable(false, false)) {
+                    LOG.debug("Could not make " + tmp + " read only");
+                }
+                try {
+                    Files.move(tmp.toPath(), object.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                } catch (FileAlreadyExistsException ex) {
+                    Files.deleteIfExists(tmp.toPath());
+                }
+            }
+            final File indexFile = getIndexFile(nvr, filename);
+            Files.createDirectories(indexFile.getParentFile().toPath());
+            final File tmpIndex = File.createTempFile(filename, ".tmp", indexFile.getParentFile());
+            Files.write(tmpIndex.toPath(), hash.getBytes(StandardCharsets.UTF_8));
+            Files.move(tmpIndex.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            markUsed(hash);
+        } catch (IOException ex) {
+            LOG.warn("Could not store " + nvr + "/" + filename + " to artifact cache", ex);
+            return;
+        }
+        evictIfNeeded();
+    }
+
+    synchronized void evictIfNeeded() {
+        final File[] files = objects.listFiles(file -> file.isFile() && !file.getName().endsWith(".tmp"));
+        if (files == null) {
+            return;
+        }
+        long size = 0;
+        for (File file : files) {
+            size += file.length();
+        }
+        if (size <= maxBytes) {
+            return;
+        }
+        final List<File> byAge = new ArrayList<>(Arrays.asList(files));
+        byAge.sort(Comparator.comparingLong(this::lastUsed));
+        for (File file : byAge) {
+            if (size <= maxBytes) {
+                break;
+            }
+            final long length = file.length();
+            try {
+                if (remove(file)) {
+                    LOG.info("Evicted " + file.getName() + " from artifact cache");
+                    size -= length;
+                }
+            } catch (IOException ex) {
+                LOG.warn("Could not evict " + file.getName() + " from artifact cache", ex);
+            }
+        }
+    }
+
+    /**
+     * Copies the object to target.
+     *
+     * @return hash of the copied content
+     */
+    private String copy(File object, File target) throws IOException, NoSuchAlgorithmException {
+        final MessageDigest digest = MessageDigest.getInstance(hashAlgorithm);
+        try (InputStream in = new DigestInputStream(new FileInputStream(object), digest)) {
+            Files.copy(in, target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        final StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    private void markUsed(String hash) throws IOException {
+        Files.createDirectories(used.toPath());
+        final File marker = new File(used, hash);
+        if (!marker.createNewFile()) {
+            Files.setLastModifiedTime(marker.toPath(), FileTime.fromMillis(System.currentTimeMillis()));
+        }
+    }
+
+    private long lastUsed(File object) {
+        final File marker = new File(used, object.getName());
+        return marker.isFile() ? marker.lastModified() : object.lastModified();
+    }
+
+    /**
+     * @return false if the object was already gone
+     */
+    private boolean remove(File object) throws IOException {
+        Files.deleteIfExists(new File(used, object.getName()).toPath());
+        return Files.deleteIfExists(object.toPath());
+    }
+
+    private File getIndexFile(String nvr, String filename) {
+        return new File(new File(index, nvr), filename);
+    }
+}
@@ -23,11 +23,24 @@
  */
 package hudson.plugins.scm.koji.client.tools;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
 import java.net.URL;
+import java.net.URLConnection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.ws.commons.util.NamespaceContextImpl;
+import org.apache.xmlrpc.XmlRpcException;
+import org.apache.xmlrpc.XmlRpcRequest;
 import org.apache.xmlrpc.client.XmlRpcClient;
 import org.apache.xmlrpc.client.XmlRpcClientConfigImpl;
+import org.apache.xmlrpc.client.XmlRpcClientException;
+import org.apache.xmlrpc.client.XmlRpcSun15HttpTransport;
 import org.apache.xmlrpc.common.TypeFactoryImpl;
 import org.apache.xmlrpc.common.XmlRpcController;
 import org.apache.xmlrpc.common.XmlRpcStreamConfig;
@@ -36,6 +49,7 @@ import org.apache.xmlrpc.parser.TypeParser;
 import org.apache.xmlrpc.serializer.I4Serializer;
 import org.apache.xmlrpc.serializer.TypeSerializer;
 import org.apache.xmlrpc.serializer.TypeSerializerImpl;
+import org.fakekoji.xmlrpc.server.xmlrpcrequestparams.MultiCall;
 import org.fakekoji.xmlrpc.server.xmlrpcrequestparams.XmlRpcRequestParams;
 import org.xml.sax.ContentHandler;
 import org.xml.sax.SAXException;
@@ -47,6 +61,17 @@ import org.xml.sax.SAXParseException;
  */
 public class XmlRpcHelper {
 
+    /**
+     * Maximal number of concurrent connections to one hub. Idle connections are
+     * kept alive by JDK, up to http.maxConnections per destination.
+     */
+    public static final String MAX_CONNECTIONS_PROPERTY = "hudson.plugins.scm.koji.xmlrpc.maxConnections";
+    private static final int MAX_CONNECTIONS_DEFAULT = 5;
+
+    // clients are thread safe, so one per URL and timeout is enough
+    private static final Map<String, XmlRpcClient> clients = new ConcurrentHashMap<>();
+    private static final Map<String, Semaphore> connectionPermits = new ConcurrentHashMap<>();
+
     public static class XmlRpcExecutioner {
 
         private final String currentURL ;
@@ -62,14 +87,33 @@ public class XmlRpcHelper {
 
         public Object execute(XmlRpcRequestParams params) {
             try {
-                final XmlRpcClient client = createClient();
+                final XmlRpcClient client = getClient();
                 return client.execute(params.getMethodName(), params.toXmlRpcParams());
             } catch (Exception ex) {
                 throw new RuntimeException("Exception while executing " + params.getMethodName(), ex);
             }
         }
 
-        private XmlRpcClient createClient() throws Exception {
+        /**
+         * Executes all the requests in one system.multicall round trip.
+         *
+         * @return results in order of the requests
+         */
+        public List<Object> executeAll(List<? extends XmlRpcRequestParams> params) {
+            return MultiCall.unwrap(execute(new MultiCall(params)));
+        }
+
+        XmlRpcClient getClient() {
+            return clients.computeIfAbsent(timeout + "@" + currentURL, key -> {
+                try {
+                    return createClient();
+                } catch (MalformedURLException ex) {
+                    throw new RuntimeException(ex);
+                }
+            });
+        }
+
+        private XmlRpcClient createClient() throws MalformedURLException {
             XmlRpcClientConfigImpl xmlRpcConfig = new XmlRpcClientConfigImpl();
             xmlRpcConfig.setServerURL(new URL(currentURL));
             if (timeout != null) {
@@ -80,11 +124,66 @@ public class XmlRpcHelper {
             XmlRpcClient client = new XmlRpcClient();
             client.setConfig(xmlRpcConfig);
             client.setTypeFactory(new KojiTypeFactory(client));
+            final Semaphore permits = connectionPermits.computeIfAbsent(
+                    currentURL,
+                    url -> new Semaphore(Integer.getInteger(MAX_CONNECTIONS_PROPERTY, MAX_CONNECTIONS_DEFAULT), true)
+            );
+            client.setTransportFactory(() -> new KeepAliveTransport(client, permits, timeout));
             return client;
         }
 
     }
 
+    /**
+     * Default sun transport disconnects after each call, closing the socket.
+     * This one only consumes the response, so the connection is returned to
+     * JDK's keep-alive cache and reused by next call to the same hub.
+     */
+    private static class KeepAliveTransport extends XmlRpcSun15HttpTransport {
+
+        private final Semaphore permits;
+        private final Integer timeout;
+
+        KeepAliveTransport(XmlRpcClient client, Semaphore permits, Integer timeout) {
+            super(client);
+            this.permits = permits;
+            this.timeout = timeout;
+        }
+
+        @Override
+        public Object sendRequest(XmlRpcRequest request) throws XmlRpcException {
+            try {
+                if (timeout == null) {
+                    permits.acquire();
+                } else if (!permits.tryAcquire(timeout, TimeUnit.MILLISECONDS)) {
+                    throw new XmlRpcClientException("No connection available within " + timeout + "ms", null);
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new XmlRpcClientException("Interrupted while waiting for connection", ex);
+            }
+            try {
+                return super.sendRequest(request);
+            } finally {
+                permits.release();
+            }
+        }
+
+        @Override
+        protected void close() throws XmlRpcClientException {
+            final URLConnection connection = getURLConnection();
+            try (InputStream in = connection.getInputStream()) {
+                final byte[] buffer = new byte[4096];
+                while (in.read(buffer) >= 0) {
+                    //drain, so the connection can be reused
+                }
+            } catch (IOException ex) {
+                super.close();
+            }
+        }
+
+    }
+
     private static class KojiTypeFactory extends TypeFactoryImpl {
 
         public KojiTypeFactory(XmlRpcController pController) {
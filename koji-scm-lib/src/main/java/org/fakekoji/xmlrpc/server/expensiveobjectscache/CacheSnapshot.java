@@ -0,0 +1,105 @@
+package org.fakekoji.xmlrpc.server.expensiveobjectscache;
+
+import org.fakekoji.xmlrpc.server.xmlrpcrequestparams.XmlRpcRequestParams;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Gzipped serialized copy of the cache content, so restarted Jenkins does not
+ * repoll everything at once. Items keep their creation time, so they expire as
+ * if there was no restart.
+ */
+class CacheSnapshot {
+
+    private static final int VERSION = 1;
+
+    static void save(File file, Map<String, SingleUrlResponseCache> cache) throws IOException {
+        final File tmp = new File(file.getAbsolutePath() + ".tmp");
+        try (ObjectOutputStream out = new ObjectOutputStream(new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(tmp))))) {
+            final List<SingleUrlResponseCache> urlCaches = new ArrayList<>(cache.values());
+            out.writeInt(VERSION);
+            out.writeInt(urlCaches.size());
+            for (SingleUrlResponseCache urlCache : urlCaches) {
+                final List<Map.Entry<XmlRpcRequestParams, SingleUrlResponseCache.ResultWithTimeStamp>> entries = new ArrayList<>(urlCache.getContent());
+                out.writeUTF(urlCache.getId().toExternalForm());
+                out.writeInt(entries.size());
+                for (Map.Entry<XmlRpcRequestParams, SingleUrlResponseCache.ResultWithTimeStamp> entry : entries) {
+                    out.writeObject(entry.getKey());
+                    out.writeLong(entry.getValue().getDateCreated().getTime());
+                    out.writeObject(entry.getValue().getResult());
+                }
+            }
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    static Map<String, SingleUrlResponseCache> load(File file) throws IOException, ClassNotFoundException {
+        final Map<String, SingleUrlResponseCache> cache = new HashMap<>();
+        try (ObjectInputStream in = new SnapshotInputStream(new GZIPInputStream(new BufferedInputStream(new FileInputStream(file))))) {
+            final int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unknown snapshot version " + version);
+            }
+            final int urls = in.readInt();
+            for (int i = 0; i < urls; i++) {
+                final URL url = new URL(in.readUTF());
+                final SingleUrlResponseCache urlCache = new SingleUrlResponseCache(url);
+                final int entries = in.readInt();
+                for (int j = 0; j < entries; j++) {
+                    final XmlRpcRequestParams params = (XmlRpcRequestParams) in.readObject();
+                    final Date dateCreated = new Date(in.readLong());
+                    urlCache.restore(params, new SingleUrlResponseCache.ResultWithTimeStamp(in.readObject(), dateCreated));
+                }
+                cache.put(url.toExternalForm(), urlCache);
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * Only request params and plain xml-rpc values are expected in the snapshot.
+     */
+    private static class SnapshotInputStream extends ObjectInputStream {
+
+        SnapshotInputStream(InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            final Class<?> clazz = super.resolveClass(desc);
+            Class<?> component = clazz;
+            while (component.isArray()) {
+                component = component.getComponentType();
+            }
+            final String name = component.getName();
+            if (component.isPrimitive()
+                    || name.startsWith("java.lang.")
+                    || name.startsWith("java.util.")
+                    || name.startsWith("org.fakekoji.xmlrpc.server.xmlrpcrequestparams.")) {
+                return clazz;
+            }
+            throw new InvalidClassException(name, "not allowed in cache snapshot");
+        }
+    }
+}
@@ -36,6 +36,21 @@ public class RemoteRequestCacheConfigKeys {
      * If set to 0, items remains in cache forever
      */
     public static final String CACHE_RELEASE_TIMEOUT_MULTIPLIER = "cacheReleaseTimeout";
+    /**
+     * Maximal number of items in cache, least recently used items above it are removed.
+     * If set to 0, size of cache is not limited
+     */
+    public static final String CACHE_MAX_ENTRIES = "cacheMaxEntries";
+    /**
+     * If true, expired item is returned immediately and refreshed in background.
+     * Otherwise first caller after expiration waits for the new value
+     */
+    public static final String BACKGROUND_REFRESH = "backgroundRefresh";
+    /**
+     * Time in minutes after which content of cache is saved next to the config file (config.snapshot),
+     * and loaded back on start. Put to 0 to disable snapshots
+     */
+    public static final String SNAPSHOT_RATE_MINUTES = "snapshotRateMinutes";
     /**
      * space separated list of regexex of  urls
      * matching urls are NOT cached
@@ -71,6 +86,12 @@ public class RemoteRequestCacheConfigKeys {
                     + CACHE_REFRESH_RATE_MINUTES + "cacheRefreshRateMinutes=0\n"
                     + "# hopefully there is a lot of ram on hydra\n"
                     + CACHE_RELEASE_TIMEOUT_MULTIPLIER + "=10\n"
+                    + "# bounds memory, least recently used items are dropped above this\n"
+                    + CACHE_MAX_ENTRIES + "=10000\n"
+                    + "# serve expired items and refresh them in background, so polling never waits for slow hub\n"
+                    + BACKGROUND_REFRESH + "=true\n"
+                    + "# keeps the cache over jenkins restart\n"
+                    + SNAPSHOT_RATE_MINUTES + "=30\n"
                     + "\n"
                     + "# although  hydra is quick enough, it keeps reading FS, lower this  rate at least a bit\n"
                     + "#" + BLACK_LISTED_URLS_LIST + "=.*" + NEW_API_MACHINE + ".*\n"
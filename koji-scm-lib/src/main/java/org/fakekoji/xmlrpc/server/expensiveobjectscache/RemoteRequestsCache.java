@@ -1,5 +1,6 @@
 package org.fakekoji.xmlrpc.server.expensiveobjectscache;
 
+import org.fakekoji.xmlrpc.server.xmlrpcrequestparams.MultiCall;
 import org.fakekoji.xmlrpc.server.xmlrpcrequestparams.XmlRpcRequestParams;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -17,12 +18,21 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
@@ -33,7 +43,7 @@ public class RemoteRequestsCache {
     private static final Logger LOG = LoggerFactory.getLogger(RemoteRequestsCache.class);
     private static final long minutesToMillis = 60l * 1000l;
 
-    private final Map<String, SingleUrlResponseCache> cache = Collections.synchronizedMap(new HashMap<>());
+    private final Map<String, SingleUrlResponseCache> cache = new ConcurrentHashMap<>();
     private final File config;
     private static final long CONFIG_DEFAULT = 10;
     private long configRefreshRateMinutes = CONFIG_DEFAULT;
@@ -41,6 +51,19 @@ public class RemoteRequestsCache {
     private long cacheRefreshRateMinutes = CACHE_DEFAULT;
     static final long RELEASE_DEFAULT = CACHE_DEFAULT * 5;
     private long cacheReleaseRate = RELEASE_DEFAULT;
+    static final long MAX_ENTRIES_DEFAULT = 10000;
+    private volatile long cacheMaxEntries = MAX_ENTRIES_DEFAULT;
+    private final AtomicBoolean evicting = new AtomicBoolean(false);
+    private final Map<InFlightKey, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+    private volatile boolean backgroundRefresh = false;
+    private volatile long snapshotRateMinutes = 0;
+    private volatile long lastSnapshot = System.currentTimeMillis();
+    private static final int REFRESH_THREADS = 2;
+    private static final ExecutorService refresher = Executors.newFixedThreadPool(REFRESH_THREADS, runnable -> {
+        final Thread thread = new Thread(runnable, "expensiveobjectscacheRefresh");
+        thread.setDaemon(true);
+        return thread;
+    });
     private Properties propRaw = new Properties();
     private final OriginalObjectProvider originalProvider;
     private List<Pattern> blackListedUrlsList = new ArrayList<>();
@@ -53,15 +76,156 @@ public class RemoteRequestsCache {
             if (cached != null) {
                 return cached;
             } else {
-                Object answer = originalProvider.obtainOriginal(url, params);
-                this.put(answer, u, params);
-                return answer;
+                return obtainOriginal(url, u, params);
             }
         } catch (MalformedURLException ex) {
             throw new RuntimeException(ex);
         }
     }
 
+    /**
+     * Concurrent callers asking for the same item while it is being fetched wait for the running request, so the
+     * remote side sees one request instead of one per polling job.
+     */
+    private Object obtainOriginal(String url, URL u, XmlRpcRequestParams params) {
+        final InFlightKey key = new InFlightKey(u.toExternalForm(), params);
+        final CompletableFuture<Object> mine = new CompletableFuture<>();
+        final CompletableFuture<Object> running = inFlight.putIfAbsent(key, mine);
+        if (running != null) {
+            return await(running, params);
+        }
+        try {
+            final Object answer = originalProvider.obtainOriginal(url, params);
+            this.put(answer, u, params);
+            mine.complete(answer);
+            return answer;
+        } catch (RuntimeException | Error ex) {
+            mine.completeExceptionally(ex);
+            throw ex;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    private static Object await(CompletableFuture<Object> running, XmlRpcRequestParams params) {
+        try {
+            return running.get();
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw new RuntimeException("Shared request " + params.getMethodName() + " failed", ex.getCause());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for " + params.getMethodName(), ex);
+        }
+    }
+
+    /**
+     * Stale item is served while its replacement is fetched by {@link #refresher}, so callers never wait for the
+     * remote side once the item was cached.
+     */
+    private void refreshInBackground(URL u, XmlRpcRequestParams params, SingleUrlResponseCache.ResultWithTimeStamp stale) {
+        try {
+            refresher.execute(() -> {
+                try {
+                    obtainOriginal(u.toExternalForm(), u, params);
+                } catch (RuntimeException ex) {
+                    stale.unflagBeingReplaced();
+                    LOG.warn("Background refresh of " + XmlRpcRequestParams.toNiceString(params) + " from " + u + " failed", ex);
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            stale.unflagBeingReplaced();
+        }
+    }
+
+    private static class InFlightKey {
+
+        private final String url;
+        private final XmlRpcRequestParams params;
+
+        InFlightKey(String url, XmlRpcRequestParams params) {
+            this.url = url;
+            this.params = params;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            InFlightKey that = (InFlightKey) o;
+            return url.equals(that.url) && params.equals(that.params);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(url, params);
+        }
+    }
+
+    /**
+     * Like {@link #obtain(String, XmlRpcRequestParams)} for many requests. Cached answers are
+     * reused, requests already being fetched by someone else are waited for and all the others
+     * are fetched in one system.multicall round trip.
+     *
+     * @return answers in order of the requests
+     */
+    public List<Object> obtainAll(String url, List<? extends XmlRpcRequestParams> params) {
+        try {
+            final URL u = new URL(url);
+            final Object[] answers = new Object[params.size()];
+            final List<Integer> missingIndexes = new ArrayList<>();
+            final List<XmlRpcRequestParams> missing = new ArrayList<>();
+            final List<InFlightKey> missingKeys = new ArrayList<>();
+            final List<CompletableFuture<Object>> mine = new ArrayList<>();
+            final Map<Integer, CompletableFuture<Object>> running = new HashMap<>();
+            for (int i = 0; i < answers.length; i++) {
+                answers[i] = this.get(u, params.get(i));
+                if (answers[i] == null) {
+                    final InFlightKey key = new InFlightKey(u.toExternalForm(), params.get(i));
+                    final CompletableFuture<Object> future = new CompletableFuture<>();
+                    final CompletableFuture<Object> other = inFlight.putIfAbsent(key, future);
+                    if (other != null) {
+                        running.put(i, other);
+                    } else {
+                        missingIndexes.add(i);
+                        missing.add(params.get(i));
+                        missingKeys.add(key);
+                        mine.add(future);
+                    }
+                }
+            }
+            try {
+                if (!missing.isEmpty()) {
+                    final List<Object> fetched = missing.size() == 1
+                            ? Collections.singletonList(originalProvider.obtainOriginal(url, missing.get(0)))
+                            : MultiCall.unwrap(originalProvider.obtainOriginal(url, new MultiCall(missing)));
+                    for (int i = 0; i < missing.size(); i++) {
+                        answers[missingIndexes.get(i)] = fetched.get(i);
+                        this.put(fetched.get(i), u, missing.get(i));
+                        mine.get(i).complete(fetched.get(i));
+                    }
+                }
+            } catch (RuntimeException | Error ex) {
+                for (final CompletableFuture<Object> future : mine) {
+                    future.completeExceptionally(ex);
+                }
+                throw ex;
+            } finally {
+                for (int i = 0; i < missingKeys.size(); i++) {
+                    inFlight.remove(missingKeys.get(i), mine.get(i));
+                }
+            }
+            for (final Map.Entry<Integer, CompletableFuture<Object>> entry : running.entrySet()) {
+                answers[entry.getKey()] = await(entry.getValue(), params.get(entry.getKey()));
+            }
+            return Arrays.asList(answers);
+        } catch (MalformedURLException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
     protected boolean isLoaded() {
         return loaded;
     }
@@ -111,6 +275,7 @@ public class RemoteRequestsCache {
                 } catch (Exception ex) {
                     LOG.warn("Failed to clear old items from cache", ex);
                 }
+                saveSnapshotIfDue();
             }
         }
     }
@@ -149,6 +314,18 @@ public class RemoteRequestsCache {
         String cacheRefreshRateMinutesS = propRaw.getProperty(RemoteRequestCacheConfigKeys.CACHE_REFRESH_RATE_MINUTES);
         String cacheReleaseS = propRaw.getProperty(RemoteRequestCacheConfigKeys.CACHE_RELEASE_TIMEOUT_MULTIPLIER);
         String blackListedUrlsListS = propRaw.getProperty(RemoteRequestCacheConfigKeys.BLACK_LISTED_URLS_LIST);
+        String cacheMaxEntriesS = propRaw.getProperty(RemoteRequestCacheConfigKeys.CACHE_MAX_ENTRIES);
+        backgroundRefresh = "true".equals(propRaw.getProperty(RemoteRequestCacheConfigKeys.BACKGROUND_REFRESH));
+        String snapshotRateMinutesS = propRaw.getProperty(RemoteRequestCacheConfigKeys.SNAPSHOT_RATE_MINUTES);
+        if (snapshotRateMinutesS != null) {
+            try {
+                snapshotRateMinutes = Long.parseLong(snapshotRateMinutesS);
+            } catch (Exception ex) {
+                LOG.warn("Failed to read or apply custom value  of (" + snapshotRateMinutesS + ") for " + RemoteRequestCacheConfigKeys.SNAPSHOT_RATE_MINUTES, ex);
+            }
+        } else {
+            snapshotRateMinutes = 0;
+        }
         if (configRefreshRateMinutesS != null) {
             try {
                 configRefreshRateMinutes = Long.parseLong(configRefreshRateMinutesS);
@@ -180,6 +357,15 @@ public class RemoteRequestsCache {
         } else {
             cacheReleaseRate = CACHE_DEFAULT;
         }
+        if (cacheMaxEntriesS != null) {
+            try {
+                cacheMaxEntries = Long.parseLong(cacheMaxEntriesS);
+            } catch (Exception ex) {
+                LOG.warn("Failed to read or apply custom value  of (" + cacheMaxEntriesS + ") for " + RemoteRequestCacheConfigKeys.CACHE_MAX_ENTRIES, ex);
+            }
+        } else {
+            cacheMaxEntries = MAX_ENTRIES_DEFAULT;
+        }
         if (blackListedUrlsListS != null && blackListedUrlsListS.trim().length() > 0) {
             try {
                 blackListedUrlsList = Arrays.stream(blackListedUrlsListS.split("\\s+")).map(Pattern::compile).collect(Collectors.toList());
@@ -213,6 +399,10 @@ public class RemoteRequestsCache {
                 bw.newLine();
                 bw.write("  cacheReleaseRate: " + cacheReleaseRate);
                 bw.newLine();
+                bw.write("  cacheMaxEntries: " + cacheMaxEntries);
+                bw.newLine();
+                bw.write("  backgroundRefresh: " + backgroundRefresh);
+                bw.newLine();
                 bw.write("  originalProvider: " + originalProvider.getClass().getName());
                 bw.newLine();
                 bw.write("  blackListedUrlsList: " + blackListedUrlsList.stream().map(Pattern::pattern).collect(Collectors.joining(",")));
@@ -247,12 +437,54 @@ public class RemoteRequestsCache {
         this.originalProvider = originalObjectProvider;
         ConfigRefresh r = new ConfigRefresh();
         r.read();
+        loadSnapshot();
         LOG.info("Cache started - " + RemoteRequestCacheConfigKeys.CACHE_REFRESH_RATE_MINUTES + " is " + cacheRefreshRateMinutes + " (0==disabled). Set config is: " + getConfigString());
         Thread t = new Thread(r, "expensiveobjectscacheRemoteRequestsCache");
         t.setDaemon(true);
         t.start();
     }
 
+    File getSnapshotFile() {
+        if (config == null) {
+            return null;
+        }
+        return new File(config.getAbsolutePath() + ".snapshot");
+    }
+
+    private void loadSnapshot() {
+        final File snapshot = getSnapshotFile();
+        if (snapshotRateMinutes <= 0 || snapshot == null || !snapshot.exists()) {
+            return;
+        }
+        try {
+            final Map<String, SingleUrlResponseCache> loaded = CacheSnapshot.load(snapshot);
+            loaded.forEach(cache::putIfAbsent);
+            LOG.info("Loaded " + size() + " cached items from " + snapshot.getAbsolutePath());
+        } catch (Exception ex) {
+            LOG.warn("Failed to load cache snapshot " + snapshot.getAbsolutePath() + ", starting cold", ex);
+        }
+    }
+
+    private void saveSnapshotIfDue() {
+        if (snapshotRateMinutes <= 0 || System.currentTimeMillis() - lastSnapshot < toUnits(snapshotRateMinutes)) {
+            return;
+        }
+        saveSnapshot();
+    }
+
+    void saveSnapshot() {
+        final File snapshot = getSnapshotFile();
+        if (snapshot == null) {
+            return;
+        }
+        lastSnapshot = System.currentTimeMillis();
+        try {
+            CacheSnapshot.save(snapshot, cache);
+        } catch (Exception ex) {
+            LOG.warn("Failed to save cache snapshot " + snapshot.getAbsolutePath(), ex);
+        }
+    }
+
     private String getConfigString() {
         if (config == null) {
             return "null";
@@ -264,16 +496,68 @@ public class RemoteRequestsCache {
 
     private SingleUrlResponseCache ensure(final URL u) {
         //we can not use URL as key, becasue it includes resolved IP in hash. That can differ in reqests to same URL
-        SingleUrlResponseCache sux = cache.get(u.toExternalForm());
-        if (sux == null) {
-            sux = new SingleUrlResponseCache(u);
-            cache.put(u.toExternalForm(), sux);
-        }
-        return sux;
+        return cache.computeIfAbsent(u.toExternalForm(), key -> new SingleUrlResponseCache(u));
     }
 
     public void put(final Object result, final URL u, XmlRpcRequestParams params) {
         ensure(u).put(result, params);
+        evictIfNeeded();
+    }
+
+    int size() {
+        int size = 0;
+        for (SingleUrlResponseCache urlCache : cache.values()) {
+            size += urlCache.size();
+        }
+        return size;
+    }
+
+    /**
+     * When there is more then {@link RemoteRequestCacheConfigKeys#CACHE_MAX_ENTRIES} items, least recently used ones
+     * are removed, down to 90% of the limit, so the eviction does not run on each put. Only one thread evicts, the
+     * others do not wait for it.
+     */
+    private void evictIfNeeded() {
+        final long max = cacheMaxEntries;
+        if (max <= 0 || size() <= max || !evicting.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            final List<Candidate> candidates = new ArrayList<>();
+            for (SingleUrlResponseCache urlCache : cache.values()) {
+                for (Map.Entry<XmlRpcRequestParams, SingleUrlResponseCache.ResultWithTimeStamp> kv : urlCache.getContent()) {
+                    candidates.add(new Candidate(urlCache, kv.getKey(), kv.getValue()));
+                }
+            }
+            candidates.sort(Comparator.comparingLong(candidate -> candidate.lastAccessed));
+            final long toRemove = candidates.size() - (max - max / 10);
+            int removed = 0;
+            for (int i = 0; i < candidates.size() && removed < toRemove; i++) {
+                final Candidate candidate = candidates.get(i);
+                if (candidate.urlCache.remove(candidate.key, candidate.value)) {
+                    removed++;
+                }
+            }
+            LOG.info("Evicted " + removed + " least recently used items from cache of " + candidates.size());
+        } finally {
+            evicting.set(false);
+        }
+    }
+
+    private static class Candidate {
+
+        private final SingleUrlResponseCache urlCache;
+        private final XmlRpcRequestParams key;
+        private final SingleUrlResponseCache.ResultWithTimeStamp value;
+        // snapshot, so concurrent access does not break the sort
+        private final long lastAccessed;
+
+        Candidate(SingleUrlResponseCache urlCache, XmlRpcRequestParams key, SingleUrlResponseCache.ResultWithTimeStamp value) {
+            this.urlCache = urlCache;
+            this.key = key;
+            this.value = value;
+            this.lastAccessed = value.getLastAccessed();
+        }
     }
 
     private Object get(final URL u, XmlRpcRequestParams params) {
@@ -299,8 +583,11 @@ public class RemoteRequestsCache {
                 return cachedResult.getResult();
             } else {
                 //if the  objkect is already being replaced, we do not check the time and return it as valid, as we know, it will already be refreshed
-                if (cachedResult.isNotBeingReplaced()) {
-                    cachedResult.flagBeingReplaced();
+                if (cachedResult.tryFlagBeingReplaced()) {
+                    if (backgroundRefresh) {
+                        refreshInBackground(u, params, cachedResult);
+                        return cachedResult.getResult();
+                    }
                     return null;
                 } else {
                     return cachedResult.getResult();
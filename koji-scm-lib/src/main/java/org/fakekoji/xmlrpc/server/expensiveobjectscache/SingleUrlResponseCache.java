@@ -9,12 +9,12 @@ import java.lang.reflect.InvocationTargetException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import edu.umd.cs.findbugs.annotations.*;
 
@@ -22,7 +22,7 @@ public class SingleUrlResponseCache {
 
 
     private final URL id;
-    private final Map<XmlRpcRequestParams, ResultWithTimeStamp> cache = Collections.synchronizedMap(new HashMap<>());
+    private final Map<XmlRpcRequestParams, ResultWithTimeStamp> cache = new ConcurrentHashMap<>();
 
 
     public SingleUrlResponseCache(final URL u) {
@@ -30,17 +30,36 @@ public class SingleUrlResponseCache {
     }
 
     public ResultWithTimeStamp get(final XmlRpcRequestParams params) {
-        return cache.get(params);
+        final ResultWithTimeStamp result = cache.get(params);
+        if (result != null) {
+            result.touch();
+        }
+        return result;
     }
 
     public void put(final Object result, XmlRpcRequestParams params) {
         cache.put(params, new ResultWithTimeStamp(result));
     }
 
+    void restore(XmlRpcRequestParams params, ResultWithTimeStamp result) {
+        cache.put(params, result);
+    }
+
     public void remove(XmlRpcRequestParams key) {
         cache.remove(key);
     }
 
+    /**
+     * Removes the item only if it was not replaced meanwhile.
+     */
+    boolean remove(XmlRpcRequestParams key, ResultWithTimeStamp value) {
+        return cache.remove(key, value);
+    }
+
+    int size() {
+        return cache.size();
+    }
+
     public URL getId() {
         return id;
     }
@@ -104,11 +123,25 @@ public class SingleUrlResponseCache {
 
         private final Date dateCreated;
         private final Object result;
-        private boolean notBeingRepalced = true;
+        private volatile boolean notBeingRepalced = true;
+        private volatile long lastAccessed;
 
         public ResultWithTimeStamp(final Object result) {
-            this.dateCreated = new Date();
+            this(result, new Date());
+        }
+
+        ResultWithTimeStamp(final Object result, final Date dateCreated) {
+            this.dateCreated = dateCreated;
             this.result = result;
+            this.lastAccessed = System.nanoTime();
+        }
+
+        void touch() {
+            lastAccessed = System.nanoTime();
+        }
+
+        long getLastAccessed() {
+            return lastAccessed;
         }
 
         public Date getDateCreated() {
@@ -127,6 +160,24 @@ public class SingleUrlResponseCache {
             this.notBeingRepalced = false;
         }
 
+        /**
+         * @return true if this call flagged the item, so the caller is the one to replace it
+         */
+        synchronized boolean tryFlagBeingReplaced() {
+            if (!notBeingRepalced) {
+                return false;
+            }
+            notBeingRepalced = false;
+            return true;
+        }
+
+        /**
+         * Replacement failed, next caller should try again.
+         */
+        void unflagBeingReplaced() {
+            this.notBeingRepalced = true;
+        }
+
         public void dump(String preffix, BufferedWriter bw) throws IOException {
             dump(preffix, result, bw);
         }
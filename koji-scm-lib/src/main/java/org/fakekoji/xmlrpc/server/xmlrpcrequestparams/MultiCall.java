@@ -0,0 +1,148 @@
+package org.fakekoji.xmlrpc.server.xmlrpcrequestparams;
+
+import hudson.plugins.scm.koji.Constants;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import static org.fakekoji.xmlrpc.server.xmlrpcrequestparams.XmlRpcRequestUtils.toMap;
+
+/**
+ * Batches several requests into single system.multicall round trip. Koji
+ * answers with array where each item is either one element array with result
+ * of the call, or a fault struct.
+ */
+public class MultiCall implements XmlRpcRequestParams {
+
+    private final List<XmlRpcRequestParams> calls;
+
+    public MultiCall(List<? extends XmlRpcRequestParams> calls) {
+        this.calls = Collections.unmodifiableList(new ArrayList<>(calls));
+    }
+
+    @Override
+    public Object[] toXmlRpcParams() {
+        final Object[] structs = new Object[calls.size()];
+        for (int i = 0; i < structs.length; i++) {
+            final Map<String, Object> map = new HashMap<>();
+            map.put(Constants.methodName, calls.get(i).getMethodName());
+            map.put(Constants.params, calls.get(i).toXmlRpcParams());
+            structs[i] = map;
+        }
+        return new Object[]{structs};
+    }
+
+    @Override
+    public String getMethodName() {
+        return Constants.multicall;
+    }
+
+    public List<XmlRpcRequestParams> getCalls() {
+        return calls;
+    }
+
+    public static MultiCall create(Object object) {
+        final Object[] structs = (Object[]) object;
+        final List<XmlRpcRequestParams> calls = new ArrayList<>(structs.length);
+        for (Object struct : structs) {
+            final Map<String, Object> map = toMap(struct);
+            calls.add(new RawCall((String) map.get(Constants.methodName), (Object[]) map.get(Constants.params)));
+        }
+        return new MultiCall(calls);
+    }
+
+    /**
+     * Server side representation of successful call.
+     */
+    public static Object success(Object result) {
+        return new Object[]{result};
+    }
+
+    /**
+     * Server side representation of failed call.
+     */
+    public static Object fault(int code, String message) {
+        final Map<String, Object> map = new HashMap<>();
+        map.put(Constants.faultCode, code);
+        map.put(Constants.faultString, message);
+        return map;
+    }
+
+    /**
+     * Client side unwrapping of the multicall answer.
+     *
+     * @param response answer to system.multicall
+     * @return results of the calls, in order of the calls
+     * @throws RuntimeException if any of the calls failed
+     */
+    public static List<Object> unwrap(Object response) {
+        final Object[] items = (Object[]) response;
+        final List<Object> results = new ArrayList<>(items.length);
+        for (Object item : items) {
+            if (item instanceof Object[] && ((Object[]) item).length == 1) {
+                results.add(((Object[]) item)[0]);
+            } else {
+                final Map<String, Object> fault = toMap(item);
+                throw new RuntimeException("Call in " + Constants.multicall + " failed with "
+                        + fault.get(Constants.faultCode) + ": " + fault.get(Constants.faultString));
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        MultiCall multiCall = (MultiCall) o;
+        return Objects.equals(calls, multiCall.calls);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(getMethodName(), calls);
+    }
+
+    /**
+     * Call as received by server, the parameters are not parsed yet.
+     */
+    public static class RawCall implements XmlRpcRequestParams {
+
+        private final String methodName;
+        private final Object[] params;
+
+        public RawCall(String methodName, Object[] params) {
+            this.methodName = methodName;
+            this.params = params == null ? new Object[0] : params.clone();
+        }
+
+        @Override
+        public Object[] toXmlRpcParams() {
+            return params.clone();
+        }
+
+        @Override
+        public String getMethodName() {
+            return methodName;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            RawCall rawCall = (RawCall) o;
+            return Objects.equals(methodName, rawCall.methodName) &&
+                    Arrays.deepEquals(params, rawCall.params);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(methodName, Arrays.deepHashCode(params));
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package hudson.plugins.scm.koji.client;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Optional;
+
+import static org.junit.Assert.*;
+
+public class ArtifactCacheTest {
+
+    private static final String NVR = "java-1.8.0-openjdk-1.8.0.222.b10-0.el7";
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File write(File file, String content) throws IOException {
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+
+    private static String md5(String content) throws NoSuchAlgorithmException {
+        final StringBuilder hex = new StringBuilder();
+        for (byte b : MessageDigest.getInstance("MD5").digest(content.getBytes(StandardCharsets.UTF_8))) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    @Test
+    public void storedArtifactIsFetchedToOtherWorkspace() throws IOException, NoSuchAlgorithmException {
+        final ArtifactCache cache = new ArtifactCache(temporaryFolder.newFolder("cache"), "MD5", 1024);
+        final File firstWorkspace = temporaryFolder.newFolder("ws1");
+        final File secondWorkspace = temporaryFolder.newFolder("ws2");
+        final String hash = md5("content of a");
+
+        assertFalse(cache.fetch(NVR, "a.rpm", new File(secondWorkspace, "a.rpm")).isPresent());
+        cache.store(NVR, "a.rpm", write(new File(firstWorkspace, "a.rpm"), "content of a"), hash);
+
+        final File target = new File(secondWorkspace, "a.rpm");
+        assertEquals(Optional.of(hash), cache.fetch(NVR, "a.rpm", target));
+        assertEquals("content of a", read(target));
+        assertFalse(cache.fetch(NVR, "b.rpm", new File(secondWorkspace, "b.rpm")).isPresent());
+        assertFalse(cache.fetch("other-nvr", "a.rpm", new File(secondWorkspace, "c.rpm")).isPresent());
+    }
+
+    @Test
+    public void changedWorkspaceCopyDoesNotChangeCache() throws IOException, NoSuchAlgorithmException {
+        final ArtifactCache cache = new ArtifactCache(temporaryFolder.newFolder("cache"), "MD5", 1024);
+        final File workspace = temporaryFolder.newFolder("ws");
+        cache.store(NVR, "a.rpm", write(new File(workspace, "a.rpm"), "content of a"), md5("content of a"));
+        final File fetched = new File(workspace, "a2.rpm");
+        assertTrue(cache.fetch(NVR, "a.rpm", fetched).isPresent());
+        write(fetched, "changed by build");
+
+        final File target = new File(workspace, "a3.rpm");
+        assertTrue(cache.fetch(NVR, "a.rpm", target).isPresent());
+        assertEquals("content of a", read(target));
+    }
+
+    @Test
+    public void corruptedArtifactIsNotFetched() throws IOException, NoSuchAlgorithmException {
+        final File root = temporaryFolder.newFolder("cache");
+        final ArtifactCache cache = new ArtifactCache(root, "MD5", 1024);
+        final File workspace = temporaryFolder.newFolder("ws");
+        final String hash = md5("content of a");
+        cache.store(NVR, "a.rpm", write(new File(workspace, "a.rpm"), "content of a"), hash);
+        final File object = new File(root, "objects/md5/" + hash);
+        object.setWritable(true);
+        write(object, "corrupted");
+
+        final File target = new File(workspace, "a2.rpm");
+        assertFalse(cache.fetch(NVR, "a.rpm", target).isPresent());
+        assertFalse(target.exists());
+        assertFalse(object.exists());
+    }
+
+    @Test
+    public void sameContentIsStoredOnce() throws IOException, NoSuchAlgorithmException {
+        final File root = temporaryFolder.newFolder("cache");
+        final ArtifactCache cache = new ArtifactCache(root, "MD5", 1024);
+        final File workspace = temporaryFolder.newFolder("ws");
+        cache.store(NVR, "a.rpm", write(new File(workspace, "a.rpm"), "same"), md5("same"));
+        cache.store("other-nvr", "a.rpm", write(new File(workspace, "b.rpm"), "same"), md5("same"));
+        assertEquals(1, new File(root, "objects/md5").listFiles().length);
+    }
+
+    @Test
+    public void leastRecentlyUsedArtifactsAreEvicted() throws IOException, NoSuchAlgorithmException {
+        final ArtifactCache cache = new ArtifactCache(temporaryFolder.newFolder("cache"), "MD5", 25);
+        final File workspace = temporaryFolder.newFolder("ws");
+        final String a = md5("0123456789a");
+        cache.store(NVR, "a.rpm", write(new File(workspace, "a.rpm"), "0123456789a"), a);
+        cache.store(NVR, "b.rpm", write(new File(workspace, "b.rpm"), "0123456789b"), md5("0123456789b"));
+        // make a the least recently used one, even on file systems with coarse time stamps
+        new File(temporaryFolder.getRoot(), "cache/used/md5/" + a).setLastModified(1000);
+        cache.store(NVR, "c.rpm", write(new File(workspace, "c.rpm"), "0123456789c"), md5("0123456789c"));
+
+        assertFalse(cache.fetch(NVR, "a.rpm", new File(workspace, "a2.rpm")).isPresent());
+        assertTrue(cache.fetch(NVR, "b.rpm", new File(workspace, "b2.rpm")).isPresent());
+        assertTrue(cache.fetch(NVR, "c.rpm", new File(workspace, "c2.rpm")).isPresent());
+    }
+
+    @Test
+    public void artifactWithoutHashIsNotStored() throws IOException {
+        final ArtifactCache cache = new ArtifactCache(temporaryFolder.newFolder("cache"), "MD5", 1024);
+        final File workspace = temporaryFolder.newFolder("ws");
+        cache.store(NVR, "a.rpm", write(new File(workspace, "a.rpm"), "content"), null);
+        assertFalse(cache.fetch(NVR, "a.rpm", new File(workspace, "a2.rpm")).isPresent());
+    }
+}
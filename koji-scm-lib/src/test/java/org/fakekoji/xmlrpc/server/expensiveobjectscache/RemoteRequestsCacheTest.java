@@ -12,14 +12,25 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicLong;
 
+import org.fakekoji.xmlrpc.server.xmlrpcrequestparams.GetPackageId;
+import org.fakekoji.xmlrpc.server.xmlrpcrequestparams.MultiCall;
 import org.fakekoji.xmlrpc.server.xmlrpcrequestparams.XmlRpcRequestParams;
 import org.junit.Assert;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 public class RemoteRequestsCacheTest {
 
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     private static class AccessibleRemoteRequestsCache extends RemoteRequestsCache {
 
         public AccessibleRemoteRequestsCache(File config, OriginalObjectProvider originalObjectProvider) {
@@ -755,9 +766,9 @@ public class RemoteRequestsCacheTest {
         l2.start();
         l1.join();
         l2.join();
-        //both attempted to get null fromdb, hard to say which was first
-        Assert.assertTrue((1 == l1.getR()) ^ (1 == l2.getR()));
-        Assert.assertTrue((2 == l1.getR()) ^ (2 == l2.getR()));
+        //both attempted to get null fromdb, second one waited for the request of the first one
+        Assert.assertEquals(1, l1.getR());
+        Assert.assertEquals(1, l2.getR());
         Thread.sleep(1000);//timeout the value
         l1 = new LongReturningThread(new DummyRequestparam("m1", new Object[]{"p1"}), cache);
         l2 = new LongReturningThread(new DummyRequestparam("m1", new Object[]{"p1"}), cache);
@@ -770,8 +781,8 @@ public class RemoteRequestsCacheTest {
         l1.join();
         l2.join();
         //both attempting cached value, first have to wait for new one, invalidating result, but second get old vlaue again
-        Assert.assertEquals(3, l1.getR()); //new value
-        Assert.assertTrue(2 == l2.getR() || 1 == l2.getR()); //no guarantee which result was added to db; cached value obtained anyway
+        Assert.assertEquals(2, l1.getR()); //new value
+        Assert.assertEquals(1, l2.getR()); //cached value obtained anyway
         dump(cache);
     }
 
@@ -910,9 +921,9 @@ public class RemoteRequestsCacheTest {
         l2.start();
         l1.join();
         l2.join();
-        //both attempted to get null fromdb, hard to say which was first
-        Assert.assertTrue((1 == l1.getR()) ^ (1 == l2.getR()));
-        Assert.assertTrue((2 == l1.getR()) ^ (2 == l2.getR()));
+        //both attempted to get null fromdb, second one waited for the request of the first one
+        Assert.assertEquals(1, l1.getR());
+        Assert.assertEquals(1, l2.getR());
         Thread.sleep(300);//timeout the value so much, it get actually errased from cache
         l1 = new LongReturningThread(new DummyRequestparam("m1", new Object[]{"p1"}), cache);
         l2 = new LongReturningThread(new DummyRequestparam("m1", new Object[]{"p1"}), cache);
@@ -925,8 +936,8 @@ public class RemoteRequestsCacheTest {
         l1.join();
         l2.join();
         //both are again trying value, which was removed from cache
-        Assert.assertEquals(3, l1.getR()); //so both get new value
-        Assert.assertEquals(4, l2.getR()); //so both get new value, compare with lazyRefreshWorks
+        Assert.assertEquals(2, l1.getR()); //so both get new value
+        Assert.assertEquals(2, l2.getR()); //from the same request, compare with lazyRefreshWorks
         dump(cache);
     }
 
@@ -1093,5 +1104,224 @@ public class RemoteRequestsCacheTest {
 
     }
 
-}
+    @Test
+    public void leastRecentlyUsedItemsAreEvicted() {
+        DummyOriginalObjectProvider provider = new DummyOriginalObjectProvider();
+        AccessibleRemoteRequestsCache cache = new AccessibleRemoteRequestsCache(null, provider);
+        Properties p = new Properties();
+        p.setProperty(RemoteRequestCacheConfigKeys.CACHE_MAX_ENTRIES, "10");
+        cache.setProperties(p);
+        long first = (long) cache.obtain("http://url:1/path", new DummyRequestparam("m1", new Object[]{"p0"}));
+        for (int x = 1; x < 30; x++) {
+            cache.obtain("http://url:1/path", new DummyRequestparam("m1", new Object[]{"p" + x}));
+            // keep the first one used
+            Assert.assertEquals(first, cache.obtain("http://url:1/path", new DummyRequestparam("m1", new Object[]{"p0"})));
+        }
+        Assert.assertTrue("size " + cache.size(), cache.size() <= 10);
+        long before = provider.i.get();
+        cache.obtain("http://url:1/path", new DummyRequestparam("m1", new Object[]{"p1"}));
+        Assert.assertEquals("evicted item was fetched again", before + 1, provider.i.get());
+    }
+
+    @Test
+    public void sizeIsNotLimitedWhenDisabled() {
+        DummyOriginalObjectProvider provider = new DummyOriginalObjectProvider();
+        AccessibleRemoteRequestsCache cache = new AccessibleRemoteRequestsCache(null, provider);
+        Properties p = new Properties();
+        p.setProperty(RemoteRequestCacheConfigKeys.CACHE_MAX_ENTRIES, "0");
+        cache.setProperties(p);
+        for (int x = 0; x < 100; x++) {
+            cache.obtain("http://url:1/path", new DummyRequestparam("m1", new Object[]{"p" + x}));
+        }
+        Assert.assertEquals(100, cache.size());
+    }
+
+    @Test
+    public void concurrentRequestsAreCoalesced() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicLong calls = new AtomicLong(0);
+        final RemoteRequestsCache cache = new RemoteRequestsCache(null, (url, params) -> {
+            calls.incrementAndGet();
+            try {
+                release.await();
+            } catch (InterruptedException ex) {
+                throw new RuntimeException(ex);
+            }
+            return 42L;
+        });
+        final ExecutorService executor = Executors.newFixedThreadPool(10);
+        try {
+            final List<Future<Object>> results = new ArrayList<>();
+            for (int x = 0; x < 10; x++) {
+                results.add(executor.submit(() -> cache.obtain("http://url:1/path", new DummyRequestparam("m1", new Object[]{"p1"}))));
+            }
+            Thread.sleep(200);
+            release.countDown();
+            for (Future<Object> result : results) {
+                Assert.assertEquals(42L, result.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        Assert.assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void failureIsSharedAndNotCached() throws Exception {
+        final AtomicLong calls = new AtomicLong(0);
+        final RemoteRequestsCache cache = new RemoteRequestsCache(null, (url, params) -> {
+            if (calls.incrementAndGet() == 1) {
+                throw new RuntimeException("hub is down");
+            }
+            return 42L;
+        });
+        try {
+            cache.obtain("http://url:1/path", new DummyRequestparam("m1", new Object[]{"p1"}));
+            Assert.fail("failure was not propagated");
+        } catch (RuntimeException ex) {
+            Assert.assertEquals("hub is down", ex.getMessage());
+        }
+        Assert.assertEquals(42L, cache.obtain("http://url:1/path", new DummyRequestparam("m1", new Object[]{"p1"})));
+    }
+
+    private static class MultiCallAwareProvider implements OriginalObjectProvider {
+        final List<XmlRpcRequestParams> requests = Collections.synchronizedList(new ArrayList<>());
 
+        @Override
+        public Object obtainOriginal(String url, XmlRpcRequestParams params) {
+            requests.add(params);
+            if (params instanceof MultiCall) {
+                final List<XmlRpcRequestParams> calls = ((MultiCall) params).getCalls();
+                final Object[] answer = new Object[calls.size()];
+                for (int x = 0; x < calls.size(); x++) {
+                    answer[x] = MultiCall.success(answerTo(calls.get(x)));
+                }
+                return answer;
+            }
+            return answerTo(params);
+        }
+
+        Object answerTo(XmlRpcRequestParams params) {
+            return "answer to " + params.toXmlRpcParams()[0];
+        }
+    }
+
+    @Test
+    public void obtainAllFetchesOnlyMissingItemsInOneMulticall() {
+        MultiCallAwareProvider provider = new MultiCallAwareProvider();
+        RemoteRequestsCache cache = new RemoteRequestsCache(null, provider);
+        cache.obtain("http://url:1/path", new DummyRequestparam("m1", new Object[]{"p1"}));
+        List<Object> answers = cache.obtainAll("http://url:1/path", Arrays.asList(
+                new DummyRequestparam("m1", new Object[]{"p0"}),
+                new DummyRequestparam("m1", new Object[]{"p1"}),
+                new DummyRequestparam("m1", new Object[]{"p2"})));
+        Assert.assertEquals(Arrays.asList("answer to p0", "answer to p1", "answer to p2"), answers);
+        Assert.assertEquals(2, provider.requests.size());
+        Assert.assertEquals(new MultiCall(Arrays.asList(
+                new DummyRequestparam("m1", new Object[]{"p0"}),
+                new DummyRequestparam("m1", new Object[]{"p2"}))), provider.requests.get(1));
+        // every item of the multicall was cached on its own
+        Assert.assertEquals("answer to p0", cache.obtain("http://url:1/path", new DummyRequestparam("m1", new Object[]{"p0"})));
+        Assert.assertEquals("answer to p2", cache.obtain("http://url:1/path", new DummyRequestparam("m1", new Object[]{"p2"})));
+        Assert.assertEquals(2, provider.requests.size());
+    }
+
+    @Test
+    public void obtainJoinsRunningMulticall() throws Exception {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final MultiCallAwareProvider provider = new MultiCallAwareProvider() {
+            @Override
+            public Object obtainOriginal(String url, XmlRpcRequestParams params) {
+                entered.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ex) {
+                    throw new RuntimeException(ex);
+                }
+                return super.obtainOriginal(url, params);
+            }
+        };
+        final RemoteRequestsCache cache = new RemoteRequestsCache(null, provider);
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final Future<List<Object>> all = executor.submit(() -> cache.obtainAll("http://url:1/path", Arrays.asList(
+                    new DummyRequestparam("m1", new Object[]{"p0"}),
+                    new DummyRequestparam("m1", new Object[]{"p1"}))));
+            entered.await();
+            final Future<Object> single = executor.submit(() -> cache.obtain("http://url:1/path", new DummyRequestparam("m1", new Object[]{"p1"})));
+            Thread.sleep(200);
+            release.countDown();
+            Assert.assertEquals(Arrays.asList("answer to p0", "answer to p1"), all.get());
+            Assert.assertEquals("answer to p1", single.get());
+        } finally {
+            executor.shutdownNow();
+        }
+        Assert.assertEquals(1, provider.requests.size());
+    }
+
+    @Test
+    public void backgroundRefreshServesStaleValue() throws InterruptedException {
+        SlowOriginalObjectProvider provider = new SlowOriginalObjectProvider();
+        AccessibleRemoteRequestsCache cache = new AccessibleRemoteRequestsCache(null, provider) {
+            @Override
+            protected long toUnits(long time) {
+                return time;
+            }
+        };
+        Properties p = new Properties();
+        p.setProperty(RemoteRequestCacheConfigKeys.CACHE_REFRESH_RATE_MINUTES, "500");
+        p.setProperty(RemoteRequestCacheConfigKeys.BACKGROUND_REFRESH, "true");
+        cache.setProperties(p);
+        long r1 = (long) cache.obtain("http://url:1/path", new DummyRequestparam("m1", new Object[]{"p1"}));
+        Assert.assertEquals(1, r1);
+        Thread.sleep(600);//expire the value
+        long start = System.currentTimeMillis();
+        r1 = (long) cache.obtain("http://url:1/path", new DummyRequestparam("m1", new Object[]{"p1"}));
+        Assert.assertEquals(1, r1); //stale value, without waiting for slow provider
+        Assert.assertTrue(System.currentTimeMillis() - start < 500);
+        Thread.sleep(1500);//let the refresh finish
+        r1 = (long) cache.obtain("http://url:1/path", new DummyRequestparam("m1", new Object[]{"p1"}));
+        Assert.assertEquals(2, r1);
+        Assert.assertEquals(2, provider.i.get());
+    }
+
+    @Test
+    public void snapshotSurvivesRestart() throws IOException {
+        File f = temporaryFolder.newFile("cache.config");
+        Properties p = new Properties();
+        p.setProperty(RemoteRequestCacheConfigKeys.SNAPSHOT_RATE_MINUTES, "10");
+        FileWriter fw = new FileWriter(f);
+        p.store(fw, null);
+        fw.flush();
+        fw.close();
+        DummyOriginalObjectProvider provider = new DummyOriginalObjectProvider();
+        RemoteRequestsCache cache = new RemoteRequestsCache(f, provider);
+        long r1 = (long) cache.obtain("http://url:1/path", new GetPackageId("p1"));
+        long r2 = (long) cache.obtain("http://url:2/path", new GetPackageId("p1"));
+        Assert.assertEquals(1, r1);
+        Assert.assertEquals(2, r2);
+        cache.saveSnapshot();
+        Assert.assertTrue(cache.getSnapshotFile().exists());
+
+        DummyOriginalObjectProvider restartedProvider = new DummyOriginalObjectProvider();
+        RemoteRequestsCache restarted = new RemoteRequestsCache(f, restartedProvider);
+        r1 = (long) restarted.obtain("http://url:1/path", new GetPackageId("p1"));
+        r2 = (long) restarted.obtain("http://url:2/path", new GetPackageId("p1"));
+        Assert.assertEquals(1, r1);
+        Assert.assertEquals(2, r2);
+        Assert.assertEquals(0, restartedProvider.i.get());
+    }
+
+    @Test
+    public void snapshotIsIgnoredWhenDisabled() throws IOException {
+        File f = temporaryFolder.newFile("cache.config");
+        DummyOriginalObjectProvider provider = new DummyOriginalObjectProvider();
+        RemoteRequestsCache cache = new RemoteRequestsCache(f, provider);
+        cache.obtain("http://url:1/path", new GetPackageId("p1"));
+        cache.saveSnapshot();
+        DummyOriginalObjectProvider restartedProvider = new DummyOriginalObjectProvider();
+        RemoteRequestsCache restarted = new RemoteRequestsCache(f, restartedProvider);
+        Assert.assertEquals(0, restarted.size());
+    }
+}